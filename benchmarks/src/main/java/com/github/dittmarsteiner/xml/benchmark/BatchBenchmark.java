@@ -0,0 +1,113 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.xml.Entities;
+
+/**
+ * Measures the {@link String} array methods of {@link Entities} against a
+ * loop over the single {@link String} methods, on 10,000 fields of a table:
+ * numbers, words, and text with some Latin-1 letters and markup.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+
+    String[] fields = new String[10000];
+    String[] encoded = new String[fields.length];
+    String[] out = new String[fields.length];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0xE4L);
+        for (int i = 0; i < fields.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            switch (i % 3) {
+                case 0:
+                    sb.append(random.nextInt(100000));
+                    break;
+                case 1:
+                    Corpus.word(sb, random, Corpus.ascii);
+                    break;
+                default:
+                    for (int w = random.nextInt(6); w >= 0; w--) {
+                        Corpus.word(sb, random, Corpus.latin1);
+                        if (random.nextInt(4) == 0) {
+                            sb.append(Corpus.markup[random.nextInt(
+                                    Corpus.markup.length)]);
+                        }
+                    }
+            }
+            fields[i] = sb.toString();
+            encoded[i] = Entities.encodeXml(fields[i]);
+        }
+    }
+
+    @Benchmark
+    public String[] encodeXmlLoop() {
+        for (int i = 0; i < fields.length; i++) {
+            out[i] = Entities.encodeXml(fields[i]);
+        }
+
+        return out;
+    }
+
+    @Benchmark
+    public String[] encodeXmlBatch() {
+        Entities.encodeXml(fields, out);
+
+        return out;
+    }
+
+    @Benchmark
+    public String[] decodeLoop() {
+        for (int i = 0; i < encoded.length; i++) {
+            out[i] = Entities.decode(encoded[i]);
+        }
+
+        return out;
+    }
+
+    @Benchmark
+    public String[] decodeBatch() {
+        Entities.decode(encoded, out);
+
+        return out;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.xml.Entities;
+import com.github.dittmarsteiner.xml.EntityCache;
+
+/**
+ * Measures {@link EntityCache} against {@link Entities#encodeHtml(String)}
+ * and {@link Entities#decode(String)} on a catalog of 100,000 short titles,
+ * asked for with a skew: a few of them very often, most rarely. With 4 MB
+ * only the frequent ones fit, with 32 MB all of them. Run with
+ * <code>-t 4</code> to see the lock contention.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+    static final int titleCount = 100000;
+
+    @Param({ "4", "32" })
+    int megabytes;
+
+    String[] titles = new String[titleCount];
+    String[] encoded = new String[titleCount];
+    EntityCache encodeCache;
+    EntityCache decodeCache;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0xE4L);
+        for (int i = 0; i < titleCount; i++) {
+            StringBuilder sb = new StringBuilder();
+            int words = 1 + random.nextInt(5);
+            for (int w = 0; w < words; w++) {
+                Corpus.word(sb, random, Corpus.latin1);
+                if (random.nextInt(8) == 0) {
+                    sb.append("& ");
+                }
+            }
+            titles[i] = sb.toString().trim();
+            encoded[i] = Entities.encodeHtml(titles[i]);
+        }
+        encodeCache = EntityCache.html(megabytes << 20, 128);
+        decodeCache = EntityCache.decode(megabytes << 20, 128);
+    }
+
+    /**
+     * The order of the titles per thread
+     */
+    @State(Scope.Thread)
+    public static class Order {
+        int[] indexes = new int[1 << 20];
+        int next;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < indexes.length; i++) {
+                double r = random.nextDouble();
+                indexes[i] = (int) (titleCount * r * r * r);
+            }
+        }
+
+        int next() {
+            return indexes[next++ & indexes.length - 1];
+        }
+    }
+
+    @Benchmark
+    public String encodeHtml(Order order) {
+        return Entities.encodeHtml(titles[order.next()]);
+    }
+
+    @Benchmark
+    public String encodeHtmlCached(Order order) {
+        return encodeCache.get(titles[order.next()]);
+    }
+
+    @Benchmark
+    public String decode(Order order) {
+        return Entities.decode(encoded[order.next()]);
+    }
+
+    @Benchmark
+    public String decodeCached(Order order) {
+        return decodeCache.get(encoded[order.next()]);
+    }
+}
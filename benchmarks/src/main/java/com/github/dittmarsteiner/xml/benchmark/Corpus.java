@@ -0,0 +1,157 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic text corpora for the benchmarks. Every corpus is generated
+ * from a fixed seed, so results of different runs and versions are
+ * comparable.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public enum Corpus {
+
+    /**
+     * A short attribute value like a title or a brand name, nothing to
+     * escape.
+     */
+    ASCII_SHORT(32) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            word(sb, random, ascii);
+        }
+    },
+
+    /**
+     * Plain ASCII prose, nothing to escape.
+     */
+    ASCII(16 * 1024) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            word(sb, random, ascii);
+        }
+    },
+
+    /**
+     * ASCII prose with a tag or an ampersand every few hundred characters.
+     */
+    MARKUP(16 * 1024) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            if (random.nextInt(40) == 0) {
+                sb.append(markup[random.nextInt(markup.length)]).append(' ');
+            }
+            word(sb, random, ascii);
+        }
+    },
+
+    /**
+     * German, French and Spanish like text, roughly every sixth character is
+     * a Latin-1 letter with a named entity.
+     */
+    LATIN1(16 * 1024) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            word(sb, random, latin1);
+        }
+    },
+
+    /**
+     * Chinese and Japanese text, no named entities at all.
+     */
+    CJK(16 * 1024) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            int len = 2 + random.nextInt(8);
+            for (int i = 0; i < len; i++) {
+                sb.append((char) (0x4E00 + random.nextInt(0x5000)));
+            }
+            sb.append(random.nextInt(6) == 0 ? '。' : '，');
+        }
+    },
+
+    /**
+     * HTML with lots of markup, typographic quotes, dashes, symbols and
+     * Greek letters, which results in an entity every few characters.
+     */
+    ENTITY_DENSE(16 * 1024) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            sb.append(markup[random.nextInt(markup.length)]);
+            sb.append(symbols.charAt(random.nextInt(symbols.length())));
+            word(sb, random, latin1);
+            sb.append(symbols.charAt(random.nextInt(symbols.length())));
+        }
+    },
+
+    /**
+     * A multi-megabyte document mixing all of the above.
+     */
+    LARGE(4 * 1024 * 1024) {
+        @Override
+        void append(StringBuilder sb, Random random) {
+            Corpus[] parts = { ASCII, MARKUP, LATIN1, CJK, ENTITY_DENSE };
+            parts[random.nextInt(parts.length)].append(sb, random);
+        }
+    };
+
+    static final String ascii = "abcdefghijklmnopqrstuvwxyzeeeeaaaiioonnrrsstt";
+    static final String latin1 = ascii + "äöüßéèêàçñíóú";
+    static final String symbols = "„“‘’–—…€©®™°\u00A0αβπ→≤≥×";
+    static final String[] markup = { "<p>", "</p>", "<b>", "</b>",
+            "<a href=\"#top\">", "</a>", "<br/>", "&", "'quoted'" };
+
+    final int length;
+
+    Corpus(int length) {
+        this.length = length;
+    }
+
+    /**
+     * @return the generated text of at least {@link #length} characters
+     */
+    public String text() {
+        Random random = new Random(0xE4L);
+        StringBuilder sb = new StringBuilder(length + 64);
+        while (sb.length() < length) {
+            append(sb, random);
+        }
+        sb.setLength(length);
+
+        return sb.toString();
+    }
+
+    abstract void append(StringBuilder sb, Random random);
+
+    static void word(StringBuilder sb, Random random, String alphabet) {
+        int len = 2 + random.nextInt(9);
+        int end = sb.length();
+        if (end == 0 || end > 1 && sb.charAt(end - 2) == '.') {
+            sb.append(Character.toUpperCase(
+                    alphabet.charAt(random.nextInt(alphabet.length()))));
+            len--;
+        }
+        for (int i = 0; i < len; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        sb.append(random.nextInt(12) == 0 ? ". " : " ");
+    }
+}
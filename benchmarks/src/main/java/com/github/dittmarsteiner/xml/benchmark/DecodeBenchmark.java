@@ -0,0 +1,141 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.xml.Entities;
+import com.github.dittmarsteiner.xml.EntityDecoder;
+import com.github.dittmarsteiner.xml.EntityDecodingReader;
+
+/**
+ * Measures {@link Entities#decode(String)},
+ * {@link Entities#decode(char[], int, int, char[], int)},
+ * {@link Entities#decode(ByteBuffer, ByteBuffer)} and
+ * {@link Entities#decode(java.io.Reader, java.io.Writer)}. The input is the
+ * HTML encoded {@link Corpus}, so {@link Corpus#ENTITY_DENSE} contains a
+ * reference every few characters, or the ASCII XML encoded one for numeric
+ * references. The {@link EntityDecoder} is reused like from a
+ * {@link ThreadLocal}. The {@link EntityDecodingReader} is read in bulk
+ * like by a parser.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param
+    Corpus corpus;
+
+    String encoded;
+    String numeric;
+    char[] src;
+    char[] dst;
+    byte[] utf8;
+    ByteBuffer bytes;
+    EntityDecoder decoder = new EntityDecoder();
+
+    @Setup
+    public void setup() throws IOException {
+        encoded = Entities.encodeHtml(corpus.text());
+        numeric = Entities.encodeAsciiXml(corpus.text());
+        src = encoded.toCharArray();
+        dst = new char[src.length];
+        utf8 = encoded.getBytes("UTF-8");
+        bytes = ByteBuffer.allocate(2 * utf8.length);
+    }
+
+    @Benchmark
+    public String decodeString() {
+        return Entities.decode(encoded);
+    }
+
+    @Benchmark
+    public String decodeStringReused() {
+        return decoder.decode(encoded);
+    }
+
+    @Benchmark
+    public String decodeNumericString() {
+        return Entities.decode(numeric);
+    }
+
+    @Benchmark
+    public int decodeCharArray() {
+        return Entities.decode(src, 0, src.length, dst, 0);
+    }
+
+    @Benchmark
+    public ByteBuffer decodeBytes() {
+        bytes.clear();
+        Entities.decode(ByteBuffer.wrap(utf8), bytes);
+
+        return bytes;
+    }
+
+    /**
+     * The way without {@link #decodeBytes()}: decode, decode, encode.
+     */
+    @Benchmark
+    public byte[] decodeBytesViaString() throws IOException {
+        return Entities.decode(new String(utf8, "UTF-8")).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public StringWriter decodeStream() throws IOException {
+        StringWriter writer = new StringWriter(encoded.length());
+        Entities.decode(new StringReader(encoded), writer);
+
+        return writer;
+    }
+
+    @Benchmark
+    public int decodeDecodingReader() throws IOException {
+        Reader reader = new EntityDecodingReader(new StringReader(encoded));
+        int len = 0;
+        for (int n; (n = reader.read(dst, 0, dst.length)) >= 0;) {
+            len += n;
+        }
+        reader.close();
+
+        return len;
+    }
+}
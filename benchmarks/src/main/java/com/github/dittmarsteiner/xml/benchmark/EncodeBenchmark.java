@@ -0,0 +1,206 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.xml.Entities;
+import com.github.dittmarsteiner.xml.EntityEncoder;
+import com.github.dittmarsteiner.xml.EntityEncodingWriter;
+import com.github.dittmarsteiner.xml.EscapePolicy;
+
+/**
+ * Measures all encode methods of {@link Entities}, the {@link String}, the
+ * {@link CharSequence}, the UTF-8 {@link ByteBuffer} and the
+ * {@link java.io.Reader Reader}/{@link java.io.Writer Writer} versions. The {@link CharSequence} version
+ * appends to the same {@link StringBuilder} every time, like a template
+ * engine would. The fragment versions write into the same long-lived
+ * {@link java.io.Writer Writer}, directly and the way without them, through
+ * a temporary {@link StringWriter}. The {@link EntityEncoder} is reused
+ * like from a {@link ThreadLocal}. The {@link EntityEncodingWriter} is
+ * compared with the {@link java.io.Reader Reader}/{@link java.io.Writer
+ * Writer} version. {@link EscapePolicy#HTML} is compared with
+ * {@link Entities#encodeHtml(String)}, {@link EscapePolicy#TEXT} shows what
+ * escaping less saves.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodeBenchmark {
+
+    @Param
+    Corpus corpus;
+
+    String text;
+    StringBuilder sb;
+    byte[] utf8;
+    ByteBuffer dst;
+    CharArrayWriter out;
+    EntityEncoder encoder = EntityEncoder.html();
+
+    @Setup
+    public void setup() throws IOException {
+        text = corpus.text();
+        sb = new StringBuilder(2 * text.length());
+        utf8 = text.getBytes("UTF-8");
+        dst = ByteBuffer.allocate(6 * utf8.length);
+        out = new CharArrayWriter(2 * text.length());
+    }
+
+    @Benchmark
+    public String encodeHtmlString() {
+        return Entities.encodeHtml(text);
+    }
+
+    @Benchmark
+    public String encodeHtmlStringReused() {
+        return encoder.encode(text);
+    }
+
+    @Benchmark
+    public String encodeHtmlPolicyString() {
+        return EscapePolicy.HTML.encode(text);
+    }
+
+    @Benchmark
+    public String encodeTextPolicyString() {
+        return EscapePolicy.TEXT.encode(text);
+    }
+
+    @Benchmark
+    public String encodeXmlString() {
+        return Entities.encodeXml(text);
+    }
+
+    @Benchmark
+    public String encodeAsciiXmlString() {
+        return Entities.encodeAsciiXml(text);
+    }
+
+    @Benchmark
+    public StringBuilder encodeHtmlCharSequence() {
+        sb.setLength(0);
+        Entities.encodeHtml(text, 0, text.length(), sb);
+
+        return sb;
+    }
+
+    @Benchmark
+    public CharArrayWriter encodeHtmlIntoWriter() throws IOException {
+        out.reset();
+        Entities.encodeHtml(text, 0, text.length(), out);
+
+        return out;
+    }
+
+    /**
+     * The way without {@link #encodeHtmlIntoWriter()}: a temporary
+     * {@link StringWriter}, copied into the long-lived one.
+     */
+    @Benchmark
+    public CharArrayWriter encodeHtmlIntoWriterViaStringWriter()
+            throws IOException {
+        out.reset();
+        StringWriter writer = new StringWriter(text.length());
+        Entities.encodeHtml(new StringReader(text), writer);
+        out.write(writer.toString());
+
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeHtmlBytes() {
+        dst.clear();
+        Entities.encodeHtml(ByteBuffer.wrap(utf8), dst);
+
+        return dst;
+    }
+
+    /**
+     * The way without {@link #encodeHtmlBytes()}: decode, encode, encode.
+     */
+    @Benchmark
+    public byte[] encodeHtmlBytesViaString() throws IOException {
+        return Entities.encodeHtml(new String(utf8, "UTF-8")).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public ByteBuffer encodeXmlBytes() {
+        dst.clear();
+        Entities.encodeXml(ByteBuffer.wrap(utf8), dst);
+
+        return dst;
+    }
+
+    @Benchmark
+    public StringWriter encodeHtmlStream() throws IOException {
+        StringWriter writer = new StringWriter(text.length());
+        Entities.encodeHtml(new StringReader(text), writer);
+
+        return writer;
+    }
+
+    @Benchmark
+    public StringWriter encodeXmlStream() throws IOException {
+        StringWriter writer = new StringWriter(text.length());
+        Entities.encodeXml(new StringReader(text), writer);
+
+        return writer;
+    }
+
+    @Benchmark
+    public StringWriter encodeAsciiXmlStream() throws IOException {
+        StringWriter writer = new StringWriter(text.length());
+        Entities.encodeAsciiXml(new StringReader(text), writer);
+
+        return writer;
+    }
+
+    @Benchmark
+    public StringWriter encodeHtmlEncodingWriter() throws IOException {
+        StringWriter writer = new StringWriter(text.length());
+        EntityEncodingWriter encoding = new EntityEncodingWriter(writer);
+        encoding.write(text);
+        encoding.close();
+
+        return writer;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.xml.Entities;
+
+/**
+ * Measures the file versions of {@link Entities} against
+ * {@link java.io.Reader Reader}/{@link Writer} on the same UTF-8 files of
+ * 32 MB made of a repeated {@link Corpus}.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileBenchmark {
+
+    static final int size = 32 * 1024 * 1024;
+
+    @Param({ "ASCII", "MARKUP", "LARGE" })
+    Corpus corpus;
+
+    File text;
+    File encoded;
+    File out;
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder sb = new StringBuilder(size);
+        String str = corpus.text();
+        while (sb.length() < size) {
+            sb.append(str);
+        }
+        text = write(sb.toString());
+        encoded = write(Entities.encodeHtml(sb.toString()));
+        out = File.createTempFile("benchmark", ".txt");
+    }
+
+    @TearDown
+    public void tearDown() {
+        text.delete();
+        encoded.delete();
+        out.delete();
+    }
+
+    @Benchmark
+    public File encodeXmlFile() throws IOException {
+        Entities.encodeXml(text, out);
+
+        return out;
+    }
+
+    @Benchmark
+    public File encodeXmlFileViaReader() throws IOException {
+        Entities.encodeXml(reader(text), writer(out));
+
+        return out;
+    }
+
+    @Benchmark
+    public File decodeFile() throws IOException {
+        Entities.decode(encoded, out);
+
+        return out;
+    }
+
+    @Benchmark
+    public File decodeFileViaReader() throws IOException {
+        Entities.decode(reader(encoded), writer(out));
+
+        return out;
+    }
+
+    static BufferedReader reader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+    }
+
+    static Writer writer(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+    }
+
+    static File write(String str) throws IOException {
+        File file = File.createTempFile("benchmark", ".txt");
+        Writer writer = writer(file);
+        try {
+            writer.write(str);
+        }
+        finally {
+            writer.close();
+        }
+
+        return file;
+    }
+}
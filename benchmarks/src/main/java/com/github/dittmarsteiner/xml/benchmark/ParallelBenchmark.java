@@ -0,0 +1,92 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.xml.Entities;
+
+/**
+ * Measures the parallel versions of {@link Entities} on the common
+ * {@link ForkJoinPool} against the sequential ones, on the first 128 KB
+ * to 4 MB of the text. Below 128 KB they run in the calling thread. They
+ * scale with the cores of the machine, on a single core it shows the
+ * overhead. Run with <code>-jvmArgs -XX:ActiveProcessorCount=n</code> on a
+ * machine with at least <code>n</code> cores to find the length from which
+ * they win with <code>n</code> cores.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelBenchmark {
+
+    @Param({ "LARGE" })
+    Corpus corpus;
+
+    @Param({ "131072", "1048576", "4194304" })
+    int length;
+
+    String text;
+    String encoded;
+
+    @Setup
+    public void setup() {
+        text = corpus.text();
+        text = text.substring(0, Math.min(length, text.length()));
+        encoded = Entities.encodeHtml(text);
+    }
+
+    @Benchmark
+    public String encodeHtml() {
+        return Entities.encodeHtml(text);
+    }
+
+    @Benchmark
+    public String encodeHtmlParallel() {
+        return Entities.encodeHtmlParallel(text, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public String decode() {
+        return Entities.decode(encoded);
+    }
+
+    @Benchmark
+    public String decodeParallel() {
+        return Entities.decodeParallel(encoded, ForkJoinPool.commonPool());
+    }
+}
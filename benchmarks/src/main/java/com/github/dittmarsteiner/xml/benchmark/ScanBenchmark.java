@@ -0,0 +1,96 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.xml.Entities;
+
+/**
+ * Compares the scan for the next character to encode or the next
+ * <code>&amp;</code> one character at a time with the Vector API version of
+ * the multi-release JAR. Both run the same methods, {@link Vector} in a JVM
+ * started with <code>--add-modules jdk.incubator.vector</code>. Needs Java
+ * 17 or later and the library built with the <code>vector</code> profile,
+ * otherwise both scan one character at a time.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+
+    @Param({ "ASCII", "MARKUP", "LATIN1", "CJK", "ENTITY_DENSE" })
+    Corpus corpus;
+
+    String text;
+    char[] src;
+    char[] dst;
+
+    @Setup
+    public void setup() {
+        text = corpus.text();
+        src = Entities.encodeHtml(text).toCharArray();
+        dst = new char[src.length];
+    }
+
+    @Benchmark
+    public StringWriter encodeHtmlStream() throws IOException {
+        StringWriter writer = new StringWriter(text.length());
+        Entities.encodeHtml(new StringReader(text), writer);
+
+        return writer;
+    }
+
+    @Benchmark
+    public StringWriter encodeXmlStream() throws IOException {
+        StringWriter writer = new StringWriter(text.length());
+        Entities.encodeXml(new StringReader(text), writer);
+
+        return writer;
+    }
+
+    @Benchmark
+    public int decodeCharArray() {
+        return Entities.decode(src, 0, src.length, dst, 0);
+    }
+
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public static class Vector extends ScanBenchmark {
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.dittmarsteiner.xml.Entities;
+import com.github.dittmarsteiner.xml.EntityCache;
+import com.github.dittmarsteiner.xml.EntityEncodingWriter;
+
+/**
+ * Measures 1000 requests, each encoding a page into a {@link StringWriter}
+ * and its titles through one shared {@link EntityCache}, shared out among
+ * 1 to 64 concurrent callers: a virtual thread each against a pool of as
+ * many platform threads. If the throughput holds up, the time stays the
+ * same with more callers, or falls with more cores. The virtual threads
+ * need Java 21, run with <code>java -jar</code> of a JDK 21; on an older
+ * one both use the pool.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+
+    static final int requests = 1000;
+    static final int titlesPerRequest = 20;
+
+    @Param({ "virtual", "platform" })
+    String threads;
+
+    @Param({ "1", "4", "16", "64" })
+    int callers;
+
+    String page;
+    String[] titles;
+    EntityCache cache;
+    ExecutorService executor;
+
+    @Setup
+    public void setup() throws Exception {
+        page = Corpus.MARKUP.text();
+        titles = page.split("\\s+");
+        cache = EntityCache.html(4 << 20, 128);
+        if ("virtual".equals(threads)) {
+            try {
+                executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            }
+            catch (NoSuchMethodException e) {
+                // before Java 21
+            }
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(callers);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public long encodeHtml() throws Exception {
+        Future<?>[] futures = new Future<?>[callers];
+        for (int c = 0; c < callers; c++) {
+            final int caller = c;
+            futures[c] = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    int length = 0;
+                    for (int r = caller; r < requests; r += callers) {
+                        length += encodeHtml(r);
+                    }
+
+                    return length;
+                }
+            });
+        }
+        long length = 0;
+        for (Future<?> future : futures) {
+            length += (Integer) future.get();
+        }
+
+        return length;
+    }
+
+    int encodeHtml(int request) throws IOException {
+        StringWriter out = new StringWriter();
+        for (int i = 0; i < titlesPerRequest; i++) {
+            out.write("<h2>");
+            out.write(cache.get(
+                    titles[(request * titlesPerRequest + i) % titles.length]));
+            out.write("</h2>\n");
+        }
+        Entities.encodeHtml(page, 0, page.length(), out);
+        EntityEncodingWriter writer = new EntityEncodingWriter(out);
+        Entities.decode(new StringReader(Entities.encodeHtml(page)), writer,
+                false);
+        writer.flush();
+
+        return out.getBuffer().length();
+    }
+}
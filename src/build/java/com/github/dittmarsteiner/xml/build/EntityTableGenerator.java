@@ -0,0 +1,301 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml.build;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Generates two tables from <code>entities.txt</code> at build time, see the
+ * <code>pom.xml</code>: <code>EntityTable.java</code> with the HTML5 names
+ * for decoding, and <code>EncodeTable.java</code> with the XHTML 1.0 names
+ * for encoding.
+ * <p>
+ * All tables are {@link String} constants, which are unpacked with
+ * {@link String#toCharArray()}. So loading the class costs a few array
+ * copies but neither thousands of objects nor a large static initializer.
+ *
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityTableGenerator {
+
+    /**
+     * The limit of a constant in a class file
+     */
+    static final int maxConstantLength = 0xFFFF;
+
+    /**
+     * The first code point of the Latin-1 block with a name, from here to
+     * <code>0x00FF</code> each one has got a name.
+     */
+    static final int latin1Offset = 0x00A0;
+
+    final Map<String, String> values = new TreeMap<String, String>();
+    final Set<String> legacy = new HashSet<String>();
+    final TreeMap<Character, String> encoded = new TreeMap<Character, String>();
+
+    /**
+     * @param args
+     *            <code>entities.txt</code> and the source directory to write
+     *            <code>EntityTable.java</code> and
+     *            <code>EncodeTable.java</code> to
+     */
+    public static void main(String[] args) throws IOException {
+        EntityTableGenerator generator = new EntityTableGenerator();
+        generator.read(new File(args[0]));
+
+        File dir = new File(args[1], "com/github/dittmarsteiner/xml");
+        dir.mkdirs();
+        generator.writeEntityTable(new File(dir, "EntityTable.java"));
+        generator.writeEncodeTable(new File(dir, "EncodeTable.java"));
+    }
+
+    void read(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            for (String line; (line = reader.readLine()) != null;) {
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] columns = line.split("\t");
+                String name = columns[0];
+                StringBuilder value = new StringBuilder();
+                for (String code : columns[1].split(" ")) {
+                    value.appendCodePoint(
+                            Integer.parseInt(code.substring(2), 16));
+                }
+                // decoded in place, see Entities.decode(String)
+                if (value.length() > name.length() + 1) {
+                    throw new IllegalArgumentException(line);
+                }
+
+                values.put(name, value.toString());
+                String[] flags = columns.length > 2
+                        ? columns[2].split(" ") : new String[0];
+                for (String flag : flags) {
+                    if (flag.equals("legacy")) {
+                        legacy.add(name);
+                    }
+                    else if (flag.equals("encode")) {
+                        encode(value.toString(), name);
+                    }
+                    else if (flag.startsWith("encode=U+")) {
+                        encode(new String(Character.toChars(Integer.parseInt(
+                                flag.substring(9), 16))), name);
+                    }
+                    else {
+                        throw new IllegalArgumentException(line);
+                    }
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        for (int c = latin1Offset; c <= 0xFF; c++) {
+            if (!encoded.containsKey((char) c)) {
+                throw new IllegalStateException("no name for " + c);
+            }
+        }
+    }
+
+    /**
+     * Only a single character above ASCII, the markup is encoded by
+     * <code>Entities</code> itself.
+     */
+    void encode(String value, String name) {
+        if (value.length() != 1 || value.charAt(0) < latin1Offset
+                || encoded.put(value.charAt(0), name) != null) {
+            throw new IllegalArgumentException(name);
+        }
+    }
+
+    void writeEntityTable(File file) throws IOException {
+        StringBuilder names = new StringBuilder();
+        StringBuilder nameOffsets = new StringBuilder().append('\0');
+        StringBuilder decoded = new StringBuilder();
+        StringBuilder valueOffsets = new StringBuilder().append('\0');
+        char[] legacyBits = new char[(values.size() + 15) >> 4];
+        int maxNameLength = 0;
+
+        int i = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String name = entry.getKey();
+            names.append(name);
+            nameOffsets.append((char) names.length());
+            decoded.append(entry.getValue());
+            valueOffsets.append((char) decoded.length());
+            if (legacy.contains(name)) {
+                legacyBits[i >> 4] |= 1 << (i & 15);
+            }
+            maxNameLength = Math.max(maxNameLength, name.length());
+            i++;
+        }
+
+        PrintWriter out = begin(file, "EntityTable",
+                "All HTML5 named character references in ascending order of their names,");
+        try {
+            out.println("    /**");
+            out.println("     * The number of names");
+            out.println("     */");
+            out.println("    static final int size = " + values.size() + ";");
+            out.println();
+            out.println("    /**");
+            out.println("     * The length of the longest name without <code>&amp;</code> and <code>;</code>");
+            out.println("     */");
+            out.println("    static final int maxNameLength = " + maxNameLength + ";");
+            out.println();
+            constant(out, "All names without <code>&amp;</code> and <code>;</code>",
+                    "names", names);
+            constant(out, "Name <code>i</code> is from <code>nameOffsets[i]</code> to <code>nameOffsets[i + 1]</code>",
+                    "nameOffsets", nameOffsets);
+            constant(out, "All decoded names, one or two code points each",
+                    "values", decoded);
+            constant(out, "Value <code>i</code> is from <code>valueOffsets[i]</code> to <code>valueOffsets[i + 1]</code>",
+                    "valueOffsets", valueOffsets);
+            constant(out, "One bit per name which may be used without <code>;</code>",
+                    "legacy", new StringBuilder().append(legacyBits));
+            out.println("}");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    void writeEncodeTable(File file) throws IOException {
+        StringBuilder codes = new StringBuilder();
+        StringBuilder names = new StringBuilder();
+        StringBuilder nameOffsets = new StringBuilder().append('\0');
+        char[] bits = new char[(encoded.lastKey() >> 4) + 1];
+        for (Map.Entry<Character, String> entry : encoded.entrySet()) {
+            char c = entry.getKey();
+            codes.append(c);
+            names.append('&').append(entry.getValue()).append(';');
+            nameOffsets.append((char) names.length());
+            bits[c >> 4] |= 1 << (c & 15);
+        }
+
+        PrintWriter out = begin(file, "EncodeTable",
+                "The XHTML 1.0 names to encode in ascending order of their characters,");
+        try {
+            constant(out, "All characters with a name, the Latin-1 block from <code>0x00"
+                    + Integer.toHexString(latin1Offset).toUpperCase() + "</code> first",
+                    "codes", codes);
+            constant(out, "The names of <code>codes</code> with <code>&amp;</code> and <code>;</code>",
+                    "names", names);
+            constant(out, "Name <code>i</code> is from <code>nameOffsets[i]</code> to <code>nameOffsets[i + 1]</code>",
+                    "nameOffsets", nameOffsets);
+            constant(out, "One bit per character up to the last of <code>codes</code>",
+                    "bits", new StringBuilder().append(bits));
+            out.println("}");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes everything up to the first constant.
+     */
+    PrintWriter begin(File file, String className, String doc)
+            throws IOException {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        out.println("/*");
+        out.println(" * Generated by " + getClass().getSimpleName()
+                + " from entities.txt, do not edit.");
+        out.println(" */");
+        out.println("package com.github.dittmarsteiner.xml;");
+        out.println();
+        out.println("/**");
+        out.println(" * " + doc);
+        out.println(" * packed into a few <code>char[]</code>s.");
+        out.println(" */");
+        out.println("final class " + className + " {");
+        out.println();
+        out.println("    private " + className + "() {");
+        out.println("        // nothing to see here");
+        out.println("    }");
+        out.println();
+
+        return out;
+    }
+
+    static void constant(PrintWriter out, String doc, String name,
+            CharSequence value) {
+        List<String> lines = new ArrayList<String>();
+        StringBuilder line = new StringBuilder();
+        int utf8 = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x7F && c != '"' && c != '\\') {
+                line.append(c);
+            }
+            // unicode escapes are replaced before parsing
+            else if (c == '\n') {
+                line.append("\\n");
+            }
+            else if (c == '\r') {
+                line.append("\\r");
+            }
+            else if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            }
+            else {
+                line.append(String.format("\\u%04X", (int) c));
+            }
+            if (line.length() >= 64) {
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+            // modified UTF-8 in the class file
+            utf8 += c > 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        lines.add(line.toString());
+        if (utf8 > maxConstantLength) {
+            throw new IllegalStateException(name + " is too large: " + utf8);
+        }
+
+        out.println("    /**");
+        out.println("     * " + doc);
+        out.println("     */");
+        out.println("    static final char[] " + name + " =");
+        for (int i = 0; i < lines.size(); i++) {
+            out.print(i == 0 ? "            (\"" : "            + \"");
+            out.print(lines.get(i));
+            out.println(i < lines.size() - 1 ? "\"" : "\").toCharArray();");
+        }
+        out.println();
+    }
+}
@@ -18,14 +18,16 @@
  */
 package com.github.dittmarsteiner.xml;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * This utility class encodes and decodes HTML and XML entities. Originally the
@@ -40,18 +42,25 @@ import java.util.Set;
  * <ol>
  * <li>{@link Entities} does not fix broken entities like <code>&amp;xAD;</code>
  * (here a <code>#</code> is missing)</li>
- * <li>Not all entities from <a href=
- * "https://dev.w3.org/html5/html-author/charref">https://dev.w3.org/html5/html-author/charref</a>
- * are supported yet</li>
+ * <li>{@link #decode(String)} knows all 2231 HTML5 named references from
+ * <a href="https://html.spec.whatwg.org/entities.json"
+ * >https://html.spec.whatwg.org/entities.json</a>, but
+ * {@link #encodeHtml(String)} writes the XHTML 1.0 names only, which every
+ * browser knows</li>
  * </ol>
  * <p>
  * <i>Note 1:</i> the code is written for <b>Java 1.6</b> to keep it
  * Android-ready.
  * <p>
- * <i>Note 2:</i> an apdaption for the Android platform might utilize
- * {@link android.util.SparseArray android.util.SparseArray} instead of
- * {@link java.util.Map Map&lt;Integer, String&gt;} for the internal
- * {@link #encodeMap}.
+ * <i>Note 2:</i> the lookup of the HTML entities is done with primitive arrays
+ * (see {@link #htmlEntityOf(char)}), so there is no boxing of characters like
+ * with a {@link java.util.Map Map&lt;Integer, String&gt;}.
+ * <p>
+ * <i>Note 3:</i> all tables are generated at build time into
+ * {@link EncodeTable} and {@link EntityTable}, which are loaded on the first
+ * HTML entity to encode or the first reference to decode only.
+ * {@link Entities} itself has no static initializer at all, which matters for
+ * the cold start on Android.
  * <p>
  * <b>License:</b><br/>
  * <span style="padding-left: 3em;"><a href=
@@ -95,7 +104,183 @@ public class Entities {
      */
     public static void encodeHtml(Reader reader, Writer writer)
             throws IOException {
-        encode(reader, writer, false, false);
+        encode(reader, writer, false, false, true);
+    }
+
+    /**
+     * Encodes like {@link #encodeHtml(Reader, Writer)}, but leaves both open
+     * if <code>close</code> is <code>false</code>, e.g. to write one
+     * fragment after another into a long-lived response {@link Writer}.
+     * <code>writer</code> is not flushed either, so the caller decides when,
+     * e.g. once per document.
+     * 
+     * @param close
+     *            <code>true</code> to close both like
+     *            {@link #encodeHtml(Reader, Writer)}
+     * @throws IOException
+     */
+    public static void encodeHtml(Reader reader, Writer writer, boolean close)
+            throws IOException {
+        encode(reader, writer, false, false, close);
+    }
+
+    /**
+     * Encodes <code>src</code> from <code>start</code> to <code>end</code>
+     * like {@link #encodeHtml(Reader, Writer)} and appends the result to
+     * <code>dst</code>, without a {@link Reader}, a {@link Writer} or an
+     * intermediate {@link String}.
+     * 
+     * @param src
+     *            for example a {@link StringBuilder}, or a
+     *            <code>char[]</code> wrapped by
+     *            {@link java.nio.CharBuffer#wrap(char[])}
+     * @param start
+     *            the index of the first character
+     * @param end
+     *            the index after the last character, should not split a
+     *            surrogate pair
+     * @param dst
+     *            to append to
+     */
+    public static void encodeHtml(CharSequence src, int start, int end,
+            StringBuilder dst) {
+        append(src, start, end, dst, false, false);
+    }
+
+    /**
+     * Encodes <code>src</code> from <code>start</code> to <code>end</code>
+     * like {@link #encodeHtml(Reader, Writer)} straight into
+     * <code>writer</code>, without an intermediate {@link String}.
+     * <code>writer</code> is neither flushed nor closed, so many fragments
+     * and the markup between them can be written into one long-lived
+     * {@link Writer}, e.g. of a response or a socket.
+     * 
+     * @param end
+     *            the index after the last character, should not split a
+     *            surrogate pair
+     * @param writer
+     *            stays open
+     * @throws IOException
+     */
+    public static void encodeHtml(CharSequence src, int start, int end,
+            Writer writer) throws IOException {
+        encode(src, start, end, writer, false, false);
+    }
+
+    /**
+     * Encodes the remaining UTF-8 bytes of <code>src</code> like
+     * {@link #encodeHtml(Reader, Writer)} into <code>dst</code>, without
+     * decoding them to characters. Only the code points of multi-byte
+     * sequences are decoded to look up their entities, all markup characters
+     * are ASCII anyway.
+     * <p>
+     * <code>src</code> is the complete input, a malformed or incomplete
+     * sequence is encoded as <code>U+FFFD</code>. If <code>src</code> has
+     * remaining bytes afterwards, <code>dst</code> is full: drain it and
+     * call again. A sequence or an entity is never split.
+     * 
+     * @param src
+     *            UTF-8 from its position to its limit
+     * @param dst
+     *            UTF-8 from its position to its limit
+     */
+    public static void encodeHtml(ByteBuffer src, ByteBuffer dst) {
+        new Utf8(false, false).transcode(src, dst);
+    }
+
+    /**
+     * The {@link InputStream}/{@link OutputStream} version of
+     * {@link #encodeHtml(ByteBuffer, ByteBuffer)} for UTF-8.
+     * 
+     * @param in
+     *            will be closed
+     * @param out
+     *            will be closed
+     * @throws IOException
+     */
+    public static void encodeHtml(InputStream in, OutputStream out)
+            throws IOException {
+        new Utf8(false, false).transcode(in, out);
+    }
+
+    /**
+     * The file version of {@link #encodeHtml(ByteBuffer, ByteBuffer)} for
+     * UTF-8, also for files larger than 2 GB. <code>in</code> is mapped into
+     * memory and scanned eight bytes at once, long unchanged parts are
+     * transferred to <code>out</code> by the file system.
+     * 
+     * @param in
+     *            to encode
+     * @param out
+     *            will be overwritten, not the same as <code>in</code>
+     * @throws IOException
+     */
+    public static void encodeHtml(File in, File out) throws IOException {
+        new Utf8(false, false).transcode(in, out);
+    }
+
+    /**
+     * The version of {@link #encodeHtml(String)} for large texts of a few
+     * megabytes. The text is encoded in chunks on <code>executor</code>, e.g.
+     * a thread pool. The calling thread takes part and runs every chunk
+     * which has not been started yet, so it never waits for a busy
+     * <code>executor</code>. A short text is encoded in the calling thread
+     * only.
+     * 
+     * @param str
+     *            the text to encode
+     * @param executor
+     *            runs the chunks
+     * @return the encoded String
+     */
+    public static String encodeHtmlParallel(CharSequence str,
+            Executor executor) {
+        return Parallel.encode(str, false, false, executor);
+    }
+
+    /**
+     * Encodes many small {@link String}s like {@link #encodeHtml(String)},
+     * e.g. the fields of a table, with one {@link StringBuilder} for all of
+     * them. A {@link String} with nothing to encode is not copied, its
+     * element of <code>out</code> is the same {@link String}.
+     * 
+     * @param in
+     *            the Strings to encode, <code>null</code> is encoded to
+     *            <code>""</code>
+     * @param out
+     *            for the encoded Strings at the same indexes, may be
+     *            <code>in</code> itself
+     */
+    public static void encodeHtml(String[] in, String[] out) {
+        encode(in, 0, in.length, out, false, false);
+    }
+
+    /**
+     * The version of {@link #encodeHtml(String[], String[])} for a batch of
+     * a few megabytes. Consecutive {@link String}s are encoded in chunks of
+     * similar length on <code>executor</code>, like by
+     * {@link #encodeHtmlParallel(CharSequence, Executor)}. A small batch is
+     * encoded in the calling thread only.
+     * 
+     * @param executor
+     *            runs the chunks
+     */
+    public static void encodeHtmlParallel(String[] in, String[] out,
+            Executor executor) {
+        Parallel.encode(in, out, false, false, executor);
+    }
+
+    /**
+     * The length of <code>str</code> encoded by {@link #encodeHtml(String)},
+     * computed without encoding it, e.g. to size a buffer. This takes about
+     * as long as encoding.
+     * 
+     * @param str
+     *            the text to encode
+     * @return the number of characters, <code>0</code> for <code>null</code>
+     */
+    public static long encodedHtmlLength(CharSequence str) {
+        return encodedLength(str, false, false);
     }
 
     /**
@@ -131,7 +316,116 @@ public class Entities {
      */
     public static void encodeXml(Reader reader, Writer writer)
             throws IOException {
-        encode(reader, writer, true, false);
+        encode(reader, writer, true, false, true);
+    }
+
+    /**
+     * Encodes like {@link #encodeXml(Reader, Writer)}, but leaves both open
+     * if <code>close</code> is <code>false</code>.
+     * 
+     * @see #encodeHtml(Reader, Writer, boolean)
+     */
+    public static void encodeXml(Reader reader, Writer writer, boolean close)
+            throws IOException {
+        encode(reader, writer, true, false, close);
+    }
+
+    /**
+     * Encodes <code>src</code> from <code>start</code> to <code>end</code>
+     * like {@link #encodeXml(Reader, Writer)} and appends the result to
+     * <code>dst</code>.
+     * 
+     * @see #encodeHtml(CharSequence, int, int, StringBuilder)
+     */
+    public static void encodeXml(CharSequence src, int start, int end,
+            StringBuilder dst) {
+        append(src, start, end, dst, true, false);
+    }
+
+    /**
+     * Encodes <code>src</code> from <code>start</code> to <code>end</code>
+     * like {@link #encodeXml(Reader, Writer)} straight into
+     * <code>writer</code>, which stays open.
+     * 
+     * @see #encodeHtml(CharSequence, int, int, Writer)
+     */
+    public static void encodeXml(CharSequence src, int start, int end,
+            Writer writer) throws IOException {
+        encode(src, start, end, writer, true, false);
+    }
+
+    /**
+     * Encodes the remaining UTF-8 bytes of <code>src</code> like
+     * {@link #encodeXml(Reader, Writer)} into <code>dst</code>, all
+     * multi-byte sequences are copied as they are.
+     * 
+     * @see #encodeHtml(ByteBuffer, ByteBuffer)
+     */
+    public static void encodeXml(ByteBuffer src, ByteBuffer dst) {
+        new Utf8(true, false).transcode(src, dst);
+    }
+
+    /**
+     * The {@link InputStream}/{@link OutputStream} version of
+     * {@link #encodeXml(ByteBuffer, ByteBuffer)} for UTF-8.
+     * 
+     * @param in
+     *            will be closed
+     * @param out
+     *            will be closed
+     * @throws IOException
+     */
+    public static void encodeXml(InputStream in, OutputStream out)
+            throws IOException {
+        new Utf8(true, false).transcode(in, out);
+    }
+
+    /**
+     * The file version of {@link #encodeXml(ByteBuffer, ByteBuffer)} for
+     * UTF-8.
+     * 
+     * @see #encodeHtml(File, File)
+     */
+    public static void encodeXml(File in, File out) throws IOException {
+        new Utf8(true, false).transcode(in, out);
+    }
+
+    /**
+     * The XML version of
+     * {@link #encodeHtmlParallel(CharSequence, Executor)}.
+     * 
+     * @see #encodeXml(String)
+     */
+    public static String encodeXmlParallel(CharSequence str,
+            Executor executor) {
+        return Parallel.encode(str, true, false, executor);
+    }
+
+    /**
+     * The XML version of {@link #encodeHtml(String[], String[])}.
+     * 
+     * @see #encodeXml(String)
+     */
+    public static void encodeXml(String[] in, String[] out) {
+        encode(in, 0, in.length, out, true, false);
+    }
+
+    /**
+     * The XML version of
+     * {@link #encodeHtmlParallel(String[], String[], Executor)}.
+     */
+    public static void encodeXmlParallel(String[] in, String[] out,
+            Executor executor) {
+        Parallel.encode(in, out, true, false, executor);
+    }
+
+    /**
+     * The XML version of {@link #encodedHtmlLength(CharSequence)}.
+     * 
+     * @see #encodeXml(String)
+     */
+    public static long encodedXmlLength(CharSequence str) {
+        return encodedLength(str, true, false);
     }
 
     /**
@@ -164,7 +458,118 @@ public class Entities {
      */
     public static void encodeAsciiXml(Reader reader, Writer writer)
             throws IOException {
-        encode(reader, writer, true, true);
+        encode(reader, writer, true, true, true);
+    }
+
+    /**
+     * Encodes like {@link #encodeAsciiXml(Reader, Writer)}, but leaves both
+     * open if <code>close</code> is <code>false</code>.
+     * 
+     * @see #encodeHtml(Reader, Writer, boolean)
+     */
+    public static void encodeAsciiXml(Reader reader, Writer writer,
+            boolean close) throws IOException {
+        encode(reader, writer, true, true, close);
+    }
+
+    /**
+     * Encodes <code>src</code> from <code>start</code> to <code>end</code>
+     * like {@link #encodeAsciiXml(Reader, Writer)} and appends the result to
+     * <code>dst</code>.
+     * 
+     * @see #encodeHtml(CharSequence, int, int, StringBuilder)
+     */
+    public static void encodeAsciiXml(CharSequence src, int start, int end,
+            StringBuilder dst) {
+        append(src, start, end, dst, true, true);
+    }
+
+    /**
+     * Encodes <code>src</code> from <code>start</code> to <code>end</code>
+     * like {@link #encodeAsciiXml(Reader, Writer)} straight into
+     * <code>writer</code>, which stays open.
+     * 
+     * @see #encodeHtml(CharSequence, int, int, Writer)
+     */
+    public static void encodeAsciiXml(CharSequence src, int start, int end,
+            Writer writer) throws IOException {
+        encode(src, start, end, writer, true, true);
+    }
+
+    /**
+     * Encodes the remaining UTF-8 bytes of <code>src</code> like
+     * {@link #encodeAsciiXml(Reader, Writer)} into <code>dst</code>, which
+     * is pure ASCII then.
+     * 
+     * @see #encodeHtml(ByteBuffer, ByteBuffer)
+     */
+    public static void encodeAsciiXml(ByteBuffer src, ByteBuffer dst) {
+        new Utf8(true, true).transcode(src, dst);
+    }
+
+    /**
+     * The {@link InputStream}/{@link OutputStream} version of
+     * {@link #encodeAsciiXml(ByteBuffer, ByteBuffer)} for UTF-8.
+     * 
+     * @param in
+     *            will be closed
+     * @param out
+     *            will be closed
+     * @throws IOException
+     */
+    public static void encodeAsciiXml(InputStream in, OutputStream out)
+            throws IOException {
+        new Utf8(true, true).transcode(in, out);
+    }
+
+    /**
+     * The file version of {@link #encodeAsciiXml(ByteBuffer, ByteBuffer)} for
+     * UTF-8.
+     * 
+     * @see #encodeHtml(File, File)
+     */
+    public static void encodeAsciiXml(File in, File out) throws IOException {
+        new Utf8(true, true).transcode(in, out);
+    }
+
+    /**
+     * The ASCII XML version of
+     * {@link #encodeHtmlParallel(CharSequence, Executor)}.
+     * 
+     * @see #encodeAsciiXml(String)
+     */
+    public static String encodeAsciiXmlParallel(CharSequence str,
+            Executor executor) {
+        return Parallel.encode(str, true, true, executor);
+    }
+
+    /**
+     * The ASCII XML version of {@link #encodeHtml(String[], String[])}.
+     * 
+     * @see #encodeAsciiXml(String)
+     */
+    public static void encodeAsciiXml(String[] in, String[] out) {
+        encode(in, 0, in.length, out, true, true);
+    }
+
+    /**
+     * The ASCII XML version of
+     * {@link #encodeHtmlParallel(String[], String[], Executor)}.
+     */
+    public static void encodeAsciiXmlParallel(String[] in, String[] out,
+            Executor executor) {
+        Parallel.encode(in, out, true, true, executor);
+    }
+
+    /**
+     * The ASCII XML version of {@link #encodedHtmlLength(CharSequence)}. The
+     * encoded text is pure ASCII, so this is its length in UTF-8 bytes as
+     * well, e.g. for a <code>Content-Length</code>.
+     * 
+     * @see #encodeAsciiXml(String)
+     */
+    public static long encodedAsciiXmlLength(CharSequence str) {
+        return encodedLength(str, true, true);
     }
 
     static String encode(String str, boolean xml, boolean ascii) {
@@ -172,63 +577,495 @@ public class Entities {
             return "";
         }
 
-        try {
-            Reader reader = new StringReader(str);
-            Writer writer = new StringWriter();
-            encode(reader, writer, xml, ascii);
+        EntityListener listener = Entities.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        int len = str.length();
+        int first = indexOfEntity(str, 0, len, xml, ascii);
+        // as is if there is nothing to encode
+        String encoded = str;
+        int entities = 0;
+        if (first >= 0) {
+            StringBuilder sb = new StringBuilder(
+                    capacity(str, first, len, xml, ascii));
+            sb.append(str, 0, first);
+            entities = encode(str, first, len, sb, xml, ascii);
+            encoded = sb.toString();
+        }
+        if (listener != null) {
+            listener.encoded(len, encoded.length(), entities,
+                    System.nanoTime() - start);
+        }
+
+        return encoded;
+    }
+
+    /**
+     * A short text gets an estimate, a long one from
+     * {@link #minExactLength} on its exact length, so the
+     * {@link StringBuilder} never grows and <code>toString()</code> copies no
+     * spare room.
+     * 
+     * @param first
+     *            the index of the first character to encode
+     * @return the capacity for the encoded <code>str</code>
+     */
+    static int capacity(CharSequence str, int first, int len, boolean xml,
+            boolean ascii) {
+        if (len - first < minExactLength) {
+            return len + (len >> 2) + 16;
+        }
+
+        return (int) Math.min(first + encodedLength(str, first, len, xml,
+                ascii), Integer.MAX_VALUE);
+    }
+
+    static long encodedLength(CharSequence str, boolean xml, boolean ascii) {
+        return str == null ? 0
+                : encodedLength(str, 0, str.length(), xml, ascii);
+    }
+
+    /**
+     * The length of the markup entities is the length of their
+     * {@link String} constants, of the HTML entities the distance of their
+     * {@link EncodeTable#nameOffsets}.
+     * 
+     * @return the length of <code>str</code> from <code>off</code> to
+     *         <code>end</code> once encoded
+     */
+    static long encodedLength(CharSequence str, int off, int end,
+            boolean xml, boolean ascii) {
+        long len = end - off;
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 128 ? !isMarkup(c) : !isEntity(c, xml, ascii)) {
+                continue;
+            }
 
-            return writer.toString();
+            if (c < 128) {
+                len += markupEntityOf(c).length() - 1;
+            }
+            else if (!ascii && !xml) {
+                char[] offsets = EncodeTable.nameOffsets;
+                int e = htmlEntityOf(c);
+                len += offsets[e + 1] - offsets[e] - 1;
+            }
+            else {
+                int code = c;
+                if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    code = Character.toCodePoint(c, str.charAt(++i));
+                    len--;
+                }
+                len += numericLength(code) - 1;
+            }
         }
-        catch (IOException e) {
-            // will never happen
-            return null;
+
+        return len;
+    }
+
+    /**
+     * @return the index of the first character from <code>off</code> to
+     *         <code>end</code> which has to be encoded or <code>-1</code>
+     */
+    static int indexOfEntity(CharSequence str, int off, int end, boolean xml,
+            boolean ascii) {
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 128 ? isMarkup(c) : isEntity(c, xml, ascii)) {
+                return i;
+            }
         }
+
+        return -1;
     }
 
-    static void encode(Reader reader, Writer writer, boolean xml, boolean ascii)
-            throws IOException {
-        try {
-            for (char c; (c = (char) reader.read()) < Character.MAX_VALUE;) {
-                // markup basic
-                if (c < 128) {
-                    switch (c) {
-                        case lt:
-                            writer.append(ltEnt);
-                            continue;
-                        case gt:
-                            writer.append(gtEnt);
-                            continue;
-                        case amp:
-                            writer.append(ampEnt);
-                            continue;
-                        case quot:
-                            writer.append(quotEnt);
-                            continue;
-                        case apos:
-                            writer.append(aposEnt);
-                            continue;
-                    }
+    /**
+     * The {@link StringBuilder} version of
+     * {@link #encode(char[], int, int, Writer, boolean, boolean, char[])},
+     * the engine of all {@link String} and {@link CharSequence} methods.
+     */
+    static int encode(CharSequence str, int off, int end, StringBuilder sb,
+            boolean xml, boolean ascii) {
+        int entities = 0;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 128 ? !isMarkup(c) : !isEntity(c, xml, ascii)) {
+                continue;
+            }
+
+            if (i > start) {
+                sb.append(str, start, i);
+            }
+            if (c < 128) {
+                sb.append(markupEntityOf(c));
+            }
+            else if (!ascii && !xml) {
+                char[] offsets = EncodeTable.nameOffsets;
+                int e = htmlEntityOf(c);
+                sb.append(EncodeTable.names, offsets[e],
+                        offsets[e + 1] - offsets[e]);
+            }
+            else {
+                int code = c;
+                if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    code = Character.toCodePoint(c, str.charAt(++i));
                 }
+                sb.append("&#").append(code).append(';');
+            }
+            entities++;
+            start = i + 1;
+        }
 
-                String entity = !ascii && !xml ? encodeMap.get((int)c) : null;
-                if (entity == null) {
-                    // 0x00AD: we always guarantee the visibility of the shy char as &#173;
-                    if ((ascii || c == 0x00AD) && c > 127) {
-                        writer.append("&#").append(Integer.toString(c))
-                                .append(";");
+        if (end > start) {
+            sb.append(str, start, end);
+        }
 
-                        continue;
-                    }
-                    writer.append(c);
+        return entities;
+    }
+
+    /**
+     * The {@link StringBuilder} engine with the {@link #listener}, for the
+     * public {@link CharSequence} methods and the chunks of
+     * {@link Parallel}
+     */
+    static void append(CharSequence src, int start, int end,
+            StringBuilder dst, boolean xml, boolean ascii) {
+        EntityListener listener = Entities.listener;
+        long nanos = listener != null ? System.nanoTime() : 0;
+        int len = dst.length();
+        int entities = encode(src, start, end, dst, xml, ascii);
+        if (listener != null) {
+            listener.encoded(end - start, dst.length() - len, entities,
+                    System.nanoTime() - nanos);
+        }
+    }
+
+    /**
+     * The engine of the {@link String} array methods, from
+     * <code>from</code> to <code>to</code>. Reported to the
+     * {@link #listener} as one call.
+     */
+    static void encode(String[] in, int from, int to, String[] out,
+            boolean xml, boolean ascii) {
+        EntityListener listener = Entities.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        StringBuilder sb = null;
+        long chars = 0, encodedChars = 0, entities = 0;
+        for (int i = from; i < to; i++) {
+            String str = in[i];
+            int len = str == null ? 0 : str.length();
+            int first = len == 0 ? -1 : indexOfEntity(str, 0, len, xml, ascii);
+            String encoded = str == null ? "" : str;
+            if (first >= 0) {
+                if (sb == null) {
+                    sb = new StringBuilder(len + (len >> 2) + 16);
                 }
-                else {
-                    writer.append(entity);
+                sb.setLength(0);
+                sb.append(str, 0, first);
+                entities += encode(str, first, len, sb, xml, ascii);
+                encoded = sb.toString();
+            }
+            out[i] = encoded;
+            chars += len;
+            encodedChars += encoded.length();
+        }
+        if (listener != null) {
+            listener.encoded(chars, encodedChars, entities,
+                    System.nanoTime() - start);
+        }
+    }
+
+    static void encode(Reader reader, Writer writer, boolean xml, boolean ascii,
+            boolean close) throws IOException {
+        EntityListener listener = Entities.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        try {
+            char[] buf = new char[bufferSize];
+            char[] scratch = new char[maxNumericLength + 1];
+            Output output = new Output(writer, bufferSize);
+            int pending = 0;
+            long chars = 0, entities = 0;
+            for (int len; (len = reader.read(buf, pending,
+                    buf.length - pending)) >= 0;) {
+                chars += len;
+                int end = pending + len;
+                // a high surrogate waits for the low one of the next chunk
+                pending = end > 0 && Character.isHighSurrogate(buf[end - 1])
+                        ? 1 : 0;
+                entities += encode(buf, 0, end - pending, output, xml, ascii,
+                        scratch);
+                if (pending > 0) {
+                    buf[0] = buf[end - 1];
                 }
             }
+            entities += encode(buf, 0, pending, output, xml, ascii, scratch);
+            output.drain();
+            if (listener != null) {
+                listener.encoded(chars, output.count, entities,
+                        System.nanoTime() - start);
+            }
         }
         finally {
-            try { reader.close(); } catch (IOException e) {}
-            try { writer.close(); } catch (IOException e) {}
+            if (close) {
+                try { reader.close(); } catch (IOException e) {}
+                try { writer.close(); } catch (IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * Copies <code>src</code> chunk by chunk into a buffer for the
+     * <code>char[]</code> engine, like {@link #encode(Reader, Writer,
+     * boolean, boolean, boolean)} without a {@link Reader}.
+     */
+    static void encode(CharSequence src, int start, int end, Writer writer,
+            boolean xml, boolean ascii) throws IOException {
+        EntityListener listener = Entities.listener;
+        long nanos = listener != null ? System.nanoTime() : 0;
+        char[] buf = new char[Math.min(end - start, bufferSize)];
+        char[] scratch = new char[maxNumericLength + 1];
+        Output output = new Output(writer, Math.min(
+                buf.length + (buf.length >> 2) + 16, bufferSize));
+        int pending = 0;
+        long entities = 0;
+        for (int i = start; i < end;) {
+            int n = Math.min(buf.length - pending, end - i);
+            Parallel.getChars(src, i, i + n, buf, pending);
+            i += n;
+            int e = pending + n;
+            // a high surrogate waits for the low one of the next chunk
+            pending = i < end && Character.isHighSurrogate(buf[e - 1]) ? 1 : 0;
+            entities += encode(buf, 0, e - pending, output, xml, ascii,
+                    scratch);
+            if (pending > 0) {
+                buf[0] = buf[e - 1];
+            }
+        }
+        output.drain();
+        if (listener != null) {
+            listener.encoded(end - start, output.count, entities,
+                    System.nanoTime() - nanos);
+        }
+    }
+
+    /**
+     * Writes all characters from <code>off</code> to <code>end</code> which
+     * need no escaping in runs as they are and only the entities one by one.
+     * A surrogate pair is encoded as one code point like
+     * <code>&amp;#128512;</code>.
+     * 
+     * @param scratch
+     *            room for a numeric reference
+     */
+    static int encode(char[] buf, int off, int end, Writer writer,
+            boolean xml, boolean ascii, char[] scratch) throws IOException {
+        int entities = 0;
+        int start = off;
+        for (int i = off; (i = Scan.indexOfEntity(buf, i, end, xml,
+                ascii)) < end; i++) {
+            char c = buf[i];
+            if (i > start) {
+                writer.write(buf, start, i - start);
+            }
+            if (c < 128) {
+                writer.write(markupEntityOf(c));
+            }
+            else if (!ascii && !xml) {
+                char[] offsets = EncodeTable.nameOffsets;
+                int e = htmlEntityOf(c);
+                writer.write(EncodeTable.names, offsets[e],
+                        offsets[e + 1] - offsets[e]);
+            }
+            else {
+                int code = c;
+                if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(buf[i + 1])) {
+                    code = Character.toCodePoint(c, buf[++i]);
+                }
+                writer.write(scratch, 0, numericEntity(code, scratch));
+            }
+            entities++;
+            start = i + 1;
+        }
+
+        if (end > start) {
+            writer.write(buf, start, end - start);
+        }
+
+        return entities;
+    }
+
+    /**
+     * @return <code>true</code> if <code>c &gt; 127</code> has to be encoded
+     */
+    static boolean isEntity(char c, boolean xml, boolean ascii) {
+        if (!ascii && !xml) {
+            return htmlEntityOf(c) >= 0;
+        }
+
+        // 0x00AD: we always guarantee the visibility of the shy char as &#173;
+        return ascii || c == 0x00AD;
+    }
+
+    /**
+     * @return the entity for one of the {@link #markupBits} characters
+     */
+    static String markupEntityOf(char c) {
+        switch (c) {
+            case lt:
+                return ltEnt;
+            case gt:
+                return gtEnt;
+            case amp:
+                return ampEnt;
+            case quot:
+                return quotEnt;
+            default:
+                return aposEnt;
+        }
+    }
+
+    /**
+     * Copies <code>n</code> characters, without a loop if both are arrays.
+     */
+    static void copy(CharBuffer in, int n, CharBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            System.arraycopy(in.array(), in.arrayOffset() + in.position(),
+                    out.array(), out.arrayOffset() + out.position(), n);
+            in.position(in.position() + n);
+            out.position(out.position() + n);
+        }
+        else {
+            for (int k = 0; k < n; k++) {
+                out.put(in.get());
+            }
+        }
+    }
+
+    /**
+     * @return the length of <code>&amp;#<i>decimal</i>;</code>
+     */
+    static int numericLength(int code) {
+        // &#0;
+        int len = 4;
+        for (int n = code; n >= 10; n /= 10) {
+            len++;
+        }
+
+        return len;
+    }
+
+    /**
+     * Writes <code>&amp;#<i>decimal</i>;</code> without a {@link String}.
+     * 
+     * @return the length
+     */
+    static int numericEntity(int code, char[] dst) {
+        int len = numericLength(code);
+        dst[0] = amp;
+        dst[1] = '#';
+        dst[len - 1] = semicolon;
+        for (int i = len - 2; i > 1; i--, code /= 10) {
+            dst[i] = (char) ('0' + code % 10);
+        }
+
+        return len;
+    }
+
+    /**
+     * An unsynchronized buffer in front of the caller's {@link Writer}, so
+     * that the runs and entities reach it in a few large writes instead of
+     * one call each, e.g. to a {@link java.io.StringWriter} which locks on
+     * every call. Counts the characters for the {@link #listener}.
+     */
+    static final class Output extends Writer {
+        final Writer writer;
+        final int maxSize;
+        char[] buf;
+        int len;
+        long count;
+
+        Output(Writer writer, int maxSize) {
+            this.writer = writer;
+            this.maxSize = maxSize;
+            // grows with the text, so a short one stays cheap
+            this.buf = new char[Math.min(maxSize, 64)];
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (len == buf.length && !grow(1)) {
+                drain();
+            }
+            buf[len++] = (char) c;
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int n) throws IOException {
+            count += n;
+            if (n > buf.length - len && !grow(n)) {
+                drain();
+                if (n >= buf.length) {
+                    // as is, no need to copy
+                    writer.write(cbuf, off, n);
+                    return;
+                }
+            }
+            System.arraycopy(cbuf, off, buf, len, n);
+            len += n;
+        }
+
+        @Override
+        public void write(String str, int off, int n) throws IOException {
+            count += n;
+            if (n > buf.length - len && !grow(n)) {
+                drain();
+                if (n >= buf.length) {
+                    writer.write(str, off, n);
+                    return;
+                }
+            }
+            str.getChars(off, off + n, buf, len);
+            len += n;
+        }
+
+        /**
+         * Grows the buffer up to {@link #maxSize}
+         * 
+         * @return <code>true</code> if <code>n</code> more characters fit
+         */
+        boolean grow(int n) {
+            if (buf.length < maxSize) {
+                buf = Arrays.copyOf(buf, Math.min(maxSize,
+                        Math.max(buf.length << 1, len + n)));
+            }
+
+            return n <= buf.length - len;
+        }
+
+        /**
+         * Writes what is buffered, without flushing the {@link Writer}.
+         */
+        void drain() throws IOException {
+            if (len > 0) {
+                writer.write(buf, 0, len);
+                len = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            drain();
+            writer.close();
         }
     }
 
@@ -244,21 +1081,103 @@ public class Entities {
      * @since 1.0
      */
     public static String decode(final String encoded) {
-        if (encoded.indexOf(amp) < 0) {
+        EntityListener listener = Entities.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        int first = encoded.indexOf(amp);
+        if (first < 0) {
+            if (listener != null) {
+                listener.decoded(encoded.length(), encoded.length(), 0, 0,
+                        System.nanoTime() - start);
+            }
             // as is
             return encoded;
         }
 
-        try {
-            StringReader reader = new StringReader(encoded);
-            StringWriter writer = new StringWriter();
-            new Decoder(reader, writer).decode();
+        // decoded is never longer than encoded, therefore in place
+        char[] chars = encoded.toCharArray();
+        int references = listener != null
+                ? Decoder.references(chars, first, chars.length) : 0;
+        Decoder decoder = new Decoder();
+        int d = decoder.finish(chars,
+                decoder.decode(chars, first, chars.length, chars, first));
+        if (listener != null) {
+            decoder.report(listener, chars.length, d, references, start);
+        }
+
+        return new String(chars, 0, d);
+    }
+
+    /**
+     * Decodes <code>len</code> characters of <code>src</code> from
+     * <code>off</code> like {@link #decode(Reader, Writer)} into
+     * <code>dst</code> from <code>dstOff</code>, without a {@link Reader}, a
+     * {@link Writer} or an intermediate {@link String}.
+     * <p>
+     * The decoded text is never longer than the encoded one, so
+     * <code>dst</code> needs room for <code>len</code> characters at most.
+     * <code>src</code> and <code>dst</code> may be the same array if
+     * <code>dstOff &lt;= off</code>, to decode in place.
+     * 
+     * @return the number of characters written to <code>dst</code>
+     * @throws IndexOutOfBoundsException
+     *             if <code>src</code> or <code>dst</code> is too short
+     */
+    public static int decode(char[] src, int off, int len, char[] dst,
+            int dstOff) {
+        EntityListener listener = Entities.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        int references = listener != null
+                ? Decoder.references(src, off, off + len) : 0;
+        Decoder decoder = new Decoder();
+        int d = decoder.finish(dst,
+                decoder.decode(src, off, off + len, dst, dstOff)) - dstOff;
+        if (listener != null) {
+            decoder.report(listener, len, d, references, start);
+        }
+
+        return d;
+    }
 
-            return writer.toString();
+    /**
+     * The engine of the {@link String} array methods, from
+     * <code>from</code> to <code>to</code>, with one {@link Decoder} and
+     * one buffer which grows to the longest {@link String}. Reported to the
+     * {@link #listener} as one call.
+     */
+    static void decode(String[] in, int from, int to, String[] out) {
+        EntityListener listener = Entities.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        Decoder decoder = new Decoder();
+        char[] chars = null;
+        long len = 0, decodedChars = 0, references = 0;
+        for (int i = from; i < to; i++) {
+            String encoded = in[i];
+            if (encoded == null) {
+                encoded = "";
+            }
+            int n = encoded.length();
+            int first = encoded.indexOf(amp);
+            String decoded = encoded;
+            if (first >= 0) {
+                if (chars == null || chars.length < n) {
+                    chars = new char[Math.max(n, 64)];
+                }
+                // decoded is never longer than encoded, therefore in place
+                encoded.getChars(first, n, chars, first);
+                if (listener != null) {
+                    references += Decoder.references(chars, first, n);
+                }
+                int d = decoder.finish(chars,
+                        decoder.decode(chars, first, n, chars, first));
+                encoded.getChars(0, first, chars, 0);
+                decoded = new String(chars, 0, d);
+            }
+            out[i] = decoded;
+            len += n;
+            decodedChars += decoded.length();
         }
-        catch (Exception e) {
-            // will never happen with a StringWriter
-            return null;
+        if (listener != null) {
+            decoder.report(listener, len, decodedChars, references, start);
         }
     }
 
@@ -276,101 +1195,483 @@ public class Entities {
      * @see #decode(String)
      */
     public static void decode(Reader reader, Writer writer) throws IOException {
-        new Decoder(reader, writer).decode();
+        new Decoder().decode(reader, writer, true);
     }
 
-    static class Decoder {
-        static final String stopChars = "\t\f\r\n &;";
+    /**
+     * Decodes like {@link #decode(Reader, Writer)}, but leaves both open if
+     * <code>close</code> is <code>false</code>. <code>writer</code> is not
+     * flushed either, so the caller decides when.
+     * 
+     * @param close
+     *            <code>true</code> to close both like
+     *            {@link #decode(Reader, Writer)}
+     * @throws IOException
+     */
+    public static void decode(Reader reader, Writer writer, boolean close)
+            throws IOException {
+        new Decoder().decode(reader, writer, close);
+    }
 
-        final Reader reader;
-        final Writer writer;
-        StringBuilder buf;
+    /**
+     * Decodes the remaining UTF-8 bytes of <code>src</code> like
+     * {@link #decode(Reader, Writer)} into <code>dst</code>, without
+     * decoding them to characters. All bytes outside of references are
+     * copied as they are.
+     * <p>
+     * <code>src</code> is the complete input. If <code>src</code> has
+     * remaining bytes afterwards, <code>dst</code> is full: drain it and
+     * call again. A reference is never split.
+     * 
+     * @param src
+     *            UTF-8 from its position to its limit
+     * @param dst
+     *            UTF-8 from its position to its limit
+     */
+    public static void decode(ByteBuffer src, ByteBuffer dst) {
+        new Utf8().transcode(src, dst);
+    }
 
-        Decoder(Reader reader, Writer writer) {
-            this.reader = reader;
-            this.writer = writer;
-        }
+    /**
+     * The {@link InputStream}/{@link OutputStream} version of
+     * {@link #decode(ByteBuffer, ByteBuffer)} for UTF-8.
+     * 
+     * @param in
+     *            will be closed
+     * @param out
+     *            will be closed
+     * @throws IOException
+     */
+    public static void decode(InputStream in, OutputStream out)
+            throws IOException {
+        new Utf8().transcode(in, out);
+    }
+
+    /**
+     * The file version of {@link #decode(ByteBuffer, ByteBuffer)} for UTF-8,
+     * also for files larger than 2 GB. <code>in</code> is mapped into memory
+     * and scanned for the next <code>&amp;</code> eight bytes at once, long
+     * parts without one are transferred to <code>out</code> by the file
+     * system.
+     * 
+     * @param in
+     *            to decode
+     * @param out
+     *            will be overwritten, not the same as <code>in</code>
+     * @throws IOException
+     */
+    public static void decode(File in, File out) throws IOException {
+        new Utf8().transcode(in, out);
+    }
+
+    /**
+     * The version of {@link #decode(String)} for large texts of a few
+     * megabytes. The text is decoded in chunks on <code>executor</code>, e.g.
+     * a thread pool. A chunk never starts right after an
+     * <code>&amp;</code>, where a reference could be split, so the result is
+     * the same as of {@link #decode(String)}. The calling thread takes part
+     * and runs every chunk which has not been started yet, so it never waits
+     * for a busy <code>executor</code>. A short text is decoded in the calling
+     * thread only.
+     * 
+     * @param encoded
+     *            XML or HTML text to decode
+     * @param executor
+     *            runs the chunks
+     * @return the decoded Unicode-String
+     */
+    public static String decodeParallel(CharSequence encoded,
+            Executor executor) {
+        return Parallel.decode(encoded, executor);
+    }
 
-        void decode() throws IOException {
+    /**
+     * Decodes many small {@link String}s like {@link #decode(String)} with
+     * one buffer for all of them. A {@link String} without an
+     * <code>&amp;</code> is not copied, its element of <code>out</code> is
+     * the same {@link String}.
+     * 
+     * @param in
+     *            the Strings to decode, <code>null</code> is decoded to
+     *            <code>""</code>
+     * @param out
+     *            for the decoded Strings at the same indexes, may be
+     *            <code>in</code> itself
+     */
+    public static void decode(String[] in, String[] out) {
+        decode(in, 0, in.length, out);
+    }
+
+    /**
+     * The version of {@link #decode(String[], String[])} for a batch of a
+     * few megabytes, decoded in chunks on <code>executor</code> like by
+     * {@link #encodeHtmlParallel(String[], String[], Executor)}.
+     * 
+     * @param executor
+     *            runs the chunks
+     */
+    public static void decodeParallel(String[] in, String[] out,
+            Executor executor) {
+        Parallel.decode(in, out, executor);
+    }
+
+    /**
+     * Reports the numbers of every call of the <code>char</code> based
+     * methods to <code>listener</code> from now on, e.g. to an
+     * {@link EntityMetrics}. Without a listener, the default, nothing is
+     * counted or timed.
+     * 
+     * @param listener
+     *            <code>null</code> to stop
+     */
+    public static void setListener(EntityListener listener) {
+        Entities.listener = listener;
+    }
+
+    /**
+     * Decodes chunk by chunk. A reference is matched character by character
+     * against the sorted names of the {@link EntityTable}, so there is
+     * neither a {@link String} nor a boxed code per reference. A reference
+     * which is not complete at the end of a chunk is kept in {@link #buf}
+     * for the next one.
+     * <p>
+     * A legacy name like <code>&amp;auml</code> is decoded without
+     * <code>;</code> only if it is not followed by a letter, a digit or
+     * <code>=</code>, like in an HTML attribute value.
+     */
+    static class Decoder {
+        /**
+         * The pending reference, <code>buf[0]</code> is always the
+         * <code>&amp;</code>, <code>len == 0</code> if there is none.
+         */
+        final char[] buf = new char[maxReferenceLength];
+        int len;
+        /**
+         * The range of {@link EntityTable} names starting with the pending
+         * name
+         */
+        int lo, hi;
+        /**
+         * The value of the pending numeric reference so far
+         */
+        int radix, code;
+        /**
+         * The references written as is, for the {@link Entities#listener}
+         */
+        long malformed;
+
+        void decode(Reader reader, Writer writer, boolean close)
+                throws IOException {
+            EntityListener listener = Entities.listener;
+            long start = listener != null ? System.nanoTime() : 0;
             try {
-                for (char c; (c = (char) reader.read()) < Character.MAX_VALUE; ) {
-                    if (c != amp) {
-                        decode(c);
+                char[] in = new char[bufferSize];
+                char[] out = new char[bufferSize + maxReferenceLength];
+                long chars = 0, decodedChars = 0, references = 0;
+                for (int n; (n = reader.read(in)) >= 0;) {
+                    if (listener != null) {
+                        references += references(in, 0, n);
                     }
-                    else {
-                        buf = buf == null ? new StringBuilder() : buf;
+                    int d = decode(in, 0, n, out, 0);
+                    writer.write(out, 0, d);
+                    chars += n;
+                    decodedChars += d;
+                }
+                int d = finish(out, 0);
+                writer.write(out, 0, d);
+                if (listener != null) {
+                    report(listener, chars, decodedChars + d, references,
+                            start);
+                }
+            }
+            finally {
+                if (close) {
+                    try { reader.close(); } catch (IOException e) {}
+                    try { writer.close(); } catch (IOException e) {}
+                }
+            }
+        }
 
-                        buf.append(c);
-                    }
+        /**
+         * Decodes <code>src</code> from <code>off</code> to <code>end</code>
+         * into <code>dst</code>. A reference at the end stays pending for the
+         * next call or {@link #finish(char[], int)}, therefore
+         * <code>dst</code> needs room for <code>end - off</code> plus
+         * {@link #maxReferenceLength} characters. Without a pending reference
+         * <code>src</code> and <code>dst</code> may be the same array.
+         * 
+         * @return the index in <code>dst</code> after the last character
+         *         written
+         */
+        int decode(char[] src, int off, int end, char[] dst, int dstOff) {
+            int d = dstOff;
+            for (int i = off; i < end;) {
+                if (len > 0) {
+                    d = decode(src[i++], dst, d);
+                    continue;
                 }
 
-                if (buf != null) {
-                    writer.append(buf);
+                // as is up to the next reference
+                int start = i;
+                i = Scan.indexOfAmp(src, i, end);
+                if (i > start) {
+                    System.arraycopy(src, start, dst, d, i - start);
+                    d += i - start;
+                }
+                if (i < end) {
+                    begin();
+                    i++;
                 }
             }
-            finally {
-                try { reader.close(); } catch (IOException e) {}
-                try { writer.close(); } catch (IOException e) {}
+
+            return d;
+        }
+
+        /**
+         * Writes a pending reference as is.
+         * 
+         * @return the index in <code>dst</code> after the last character
+         *         written
+         */
+        int finish(char[] dst, int d) {
+            return end(dst, d, -1);
+        }
+
+        void report(EntityListener listener, long chars, long decodedChars,
+                long references, long start) {
+            listener.decoded(chars, decodedChars, references, malformed,
+                    System.nanoTime() - start);
+        }
+
+        /**
+         * Counts the references only if reported, so that decoding itself
+         * does not have to.
+         * 
+         * @return the number of <code>&amp;</code> from <code>off</code> to
+         *         <code>end</code>
+         */
+        static int references(char[] src, int off, int end) {
+            int n = 0;
+            for (int i = Scan.indexOfAmp(src, off, end); i < end;
+                    i = Scan.indexOfAmp(src, i + 1, end)) {
+                n++;
             }
+
+            return n;
         }
 
-        void decode(char c) throws IOException {
-            if (buf == null) {
-                writer.append(c);
+        void begin() {
+            buf[0] = amp;
+            len = 1;
+            lo = 0;
+            hi = EntityTable.size;
+        }
+
+        int decode(char c, char[] dst, int d) {
+            if (c == amp) {
+                d = end(dst, d, c);
+                begin();
+
+                return d;
+            }
 
-                return;
+            if (len == 1 && c == '#') {
+                // example: &#173;
+                buf[len++] = c;
+                radix = 10;
+                code = 0;
+
+                return d;
             }
 
-            buf.append(c);
+            if (len > 1 && buf[1] == '#') {
+                return decodeNumber(c, dst, d);
+            }
 
-            if (stopChars.indexOf(c) >= 0) {
-                Integer code = valueOf(c, buf);
+            if (c == semicolon) {
+                if (lo < hi && nameLength(lo) == len - 1) {
+                    len = 0;
 
-                if (code != null) {
-                    writer.append((char) code.intValue());
+                    return value(lo, dst, d);
                 }
-                else {
-                    // could not decode, therefore as is
-                    writer.append(buf);
+            }
+            else {
+                int depth = len - 1;
+                int l = indexOf(lo, hi, depth, c);
+                int h = indexOf(l, hi, depth, c + 1);
+                if (l < h) {
+                    lo = l;
+                    hi = h;
+                    buf[len++] = c;
+
+                    return d;
+                }
+            }
+
+            // could not decode, therefore as is
+            d = end(dst, d, c);
+            dst[d++] = c;
+
+            return d;
+        }
+
+        int decodeNumber(char c, char[] dst, int d) {
+            if (c == semicolon) {
+                // at least one digit
+                if (len > (radix == 16 ? 3 : 2)
+                        && code <= Character.MAX_CODE_POINT) {
+                    // a surrogate pair above 0xFFFF
+                    d += Character.toChars(code, dst, d);
+                    len = 0;
+
+                    return d;
+                }
+            }
+            else if (len < maxNumericLength) {
+                if (len == 2 && (c == 'x' || c == 'X')) {
+                    // example: &#xAD;
+                    radix = 16;
+                    buf[len++] = c;
+
+                    return d;
+                }
+
+                int digit = c < 128 ? Character.digit(c, radix) : -1;
+                if (digit >= 0) {
+                    // stops growing if too large, so no overflow
+                    if (code <= Character.MAX_CODE_POINT) {
+                        code = code * radix + digit;
+                    }
+                    buf[len++] = c;
+
+                    return d;
                 }
+            }
+
+            // could not decode, therefore as is
+            d = flush(dst, d);
+            dst[d++] = c;
+
+            return d;
+        }
+
+        /**
+         * Ends the pending reference before <code>next</code>. A legacy name
+         * is decoded, everything else is written as is.
+         * 
+         * @param next
+         *            the next character or <code>-1</code> at the end
+         */
+        int end(char[] dst, int d, int next) {
+            if (len > 1 && buf[1] != '#' && nameLength(lo) == len - 1
+                    && isLegacy(lo) && next != '=' && !isAlphanumeric(next)) {
+                len = 0;
 
-                buf = null;
+                return value(lo, dst, d);
             }
-            else if (buf.length() > 10) {
-                writer.append(buf);
-                buf = null;
+
+            return flush(dst, d);
+        }
+
+        int flush(char[] dst, int d) {
+            if (len > 0) {
+                malformed++;
+                System.arraycopy(buf, 0, dst, d, len);
+                d += len;
+                len = 0;
             }
+
+            return d;
         }
 
-        static Integer valueOf(char c, StringBuilder entity) {
-            Integer code;
-            // definitely closing
-            if (c == semicolon && entity.charAt(1) == '#') {
-                try {
-                    if (entity.charAt(2) == 'x' && entity.length() > 2) {
-                        // example: &#xAD;
-                        code = Integer.valueOf(
-                                entity.substring(3, entity.length() - 1), 16);
-                    }
-                    else {
-                        // example: &#173;
-                        code = Integer.valueOf(
-                                entity.substring(2, entity.length() - 1));
-                    }
+        /**
+         * Binary search in the range of {@link EntityTable} names from
+         * <code>lo</code> to <code>hi</code>, which all start with the same
+         * <code>depth</code> characters.
+         * 
+         * @return the index of the first name with a character &gt;=
+         *         <code>c</code> at <code>depth</code>
+         */
+        static int indexOf(int lo, int hi, int depth, int c) {
+            char[] names = EntityTable.names;
+            char[] offsets = EntityTable.nameOffsets;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int i = offsets[mid] + depth;
+                // a name of length depth is the prefix of all others
+                if ((i < offsets[mid + 1] ? names[i] : -1) < c) {
+                    lo = mid + 1;
                 }
-                catch (NumberFormatException e) {
-                    code = null;
+                else {
+                    hi = mid;
                 }
             }
-            else {
-                code = decodeMap.get(entity.toString());
-            }
 
-            return code;
+            return lo;
+        }
+
+        static int nameLength(int i) {
+            return EntityTable.nameOffsets[i + 1] - EntityTable.nameOffsets[i];
+        }
+
+        static boolean isLegacy(int i) {
+            return (EntityTable.legacy[i >> 4] & 1 << (i & 15)) != 0;
+        }
+
+        /**
+         * Writes the decoded name <code>i</code>.
+         * 
+         * @return the index in <code>dst</code> after the last character
+         *         written
+         */
+        static int value(int i, char[] dst, int d) {
+            int start = EntityTable.valueOffsets[i];
+            int len = EntityTable.valueOffsets[i + 1] - start;
+            System.arraycopy(EntityTable.values, start, dst, d, len);
+
+            return d + len;
+        }
+
+        static boolean isAlphanumeric(int c) {
+            return c >= '0' && c <= '9' || c >= 'A' && c <= 'Z'
+                    || c >= 'a' && c <= 'z';
         }
     }
 
-    static final int initialMapSize = 0xFF;
+    /**
+     * Receives the numbers of every call, <code>null</code> to count
+     * nothing. Read once per call.
+     */
+    static volatile EntityListener listener;
+
+    /**
+     * Size of the chunks read from a {@link Reader}
+     */
+    static final int bufferSize = 0x1000;
+
+    /**
+     * The length from which the result of {@link #encode(String, boolean,
+     * boolean)} is sized exactly. Computing the length takes about as long
+     * as encoding, which pays off only where growing would copy megabytes.
+     */
+    static final int minExactLength = 0x10000;
+
+    /**
+     * The largest buffer an {@link EntityEncoder} or {@link EntityDecoder}
+     * keeps for the next call, so a single huge text does not hold on to
+     * its memory
+     */
+    static final int maxRetainedLength = 0x10000;
+
+    /**
+     * The number of stripes of {@link EntityMetrics} and segments of
+     * {@link EntityCache}, so that threads rarely share one: a power of 2,
+     * twice the processors up to 64
+     */
+    static int stripes() {
+        return Integer.highestOneBit(
+                Math.min(Runtime.getRuntime().availableProcessors(), 32)) * 2;
+    }
 
     /**
      * For direct addressing to optimize for probability <code>char &lt; 128</code>
@@ -384,286 +1685,56 @@ public class Entities {
             ampEnt = "&amp;", quotEnt = "&quot;", aposEnt = "&apos;";
 
     /**
-     * Contains all codes and entities from
-     * <a href="http://www.w3.org/2003/entities/2007xml/unicode.xml"
-     * >http://www.w3.org/2003/entities/2007xml/unicode.xml</a>
-     * <p>
-     * TODO: not all 1448 entities from <a href=
-     * "https://dev.w3.org/html5/html-author/charref">https://dev.w3.org/html5/html-author/charref</a>
-     * are supported yet.
-     */
-    static final Map<Integer, String> encodeMap =
-            new HashMap<Integer, String>(initialMapSize);
-    // populate
-    static {
-        // predefined XML entities
-        encodeMap.put(lt, ltEnt);
-        encodeMap.put(gt, gtEnt);
-        encodeMap.put(amp, ampEnt);
-        encodeMap.put(quot, quotEnt);
-        encodeMap.put(apos, aposEnt);
-
-        // HTML 4.0.1 entities
-        encodeMap.put(193, "&Aacute;");
-        encodeMap.put(225, "&aacute;");
-        encodeMap.put(194, "&Acirc;");
-        encodeMap.put(226, "&acirc;");
-        encodeMap.put(180, "&acute;");
-        encodeMap.put(198, "&AElig;");
-        encodeMap.put(230, "&aelig;");
-        encodeMap.put(192, "&Agrave;");
-        encodeMap.put(224, "&agrave;");
-        encodeMap.put(8501, "&alefsym;");
-        encodeMap.put(913, "&Alpha;");
-        encodeMap.put(945, "&alpha;");
-        encodeMap.put(8743, "&and;");
-        encodeMap.put(8736, "&ang;");
-        encodeMap.put(197, "&Aring;");
-        encodeMap.put(229, "&aring;");
-        encodeMap.put(8776, "&asymp;");
-        encodeMap.put(195, "&Atilde;");
-        encodeMap.put(227, "&atilde;");
-        encodeMap.put(196, "&Auml;");
-        encodeMap.put(228, "&auml;");
-        encodeMap.put(8222, "&bdquo;");
-        encodeMap.put(914, "&Beta;");
-        encodeMap.put(946, "&beta;");
-        encodeMap.put(166, "&brvbar;");
-        encodeMap.put(8226, "&bull;");
-        encodeMap.put(8745, "&cap;");
-        encodeMap.put(199, "&Ccedil;");
-        encodeMap.put(231, "&ccedil;");
-        encodeMap.put(184, "&cedil;");
-        encodeMap.put(162, "&cent;");
-        encodeMap.put(935, "&Chi;");
-        encodeMap.put(967, "&chi;");
-        encodeMap.put(710, "&circ;");
-        encodeMap.put(9827, "&clubs;");
-        encodeMap.put(8773, "&cong;");
-        encodeMap.put(169, "&copy;");
-        encodeMap.put(8629, "&crarr;");
-        encodeMap.put(8746, "&cup;");
-        encodeMap.put(164, "&curren;");
-        encodeMap.put(8224, "&dagger;");
-        encodeMap.put(8225, "&Dagger;");
-        encodeMap.put(8595, "&darr;");
-        encodeMap.put(8659, "&dArr;");
-        encodeMap.put(176, "&deg;");
-        encodeMap.put(916, "&Delta;");
-        encodeMap.put(948, "&delta;");
-        encodeMap.put(9830, "&diams;");
-        encodeMap.put(247, "&divide;");
-        encodeMap.put(201, "&Eacute;");
-        encodeMap.put(233, "&eacute;");
-        encodeMap.put(202, "&Ecirc;");
-        encodeMap.put(234, "&ecirc;");
-        encodeMap.put(200, "&Egrave;");
-        encodeMap.put(232, "&egrave;");
-        encodeMap.put(8709, "&empty;");
-        encodeMap.put(8195, "&emsp;");
-        encodeMap.put(8194, "&ensp;");
-        encodeMap.put(917, "&Epsilon;");
-        encodeMap.put(949, "&epsilon;");
-        encodeMap.put(8801, "&equiv;");
-        encodeMap.put(919, "&Eta;");
-        encodeMap.put(951, "&eta;");
-        encodeMap.put(208, "&ETH;");
-        encodeMap.put(240, "&eth;");
-        encodeMap.put(203, "&Euml;");
-        encodeMap.put(235, "&euml;");
-        encodeMap.put(8364, "&euro;");
-        encodeMap.put(8707, "&exist;");
-        encodeMap.put(402, "&fnof;");
-        encodeMap.put(8704, "&forall;");
-        encodeMap.put(189, "&frac12;");
-        encodeMap.put(188, "&frac14;");
-        encodeMap.put(190, "&frac34;");
-        encodeMap.put(8260, "&frasl;");
-        encodeMap.put(915, "&Gamma;");
-        encodeMap.put(947, "&gamma;");
-        encodeMap.put(8805, "&ge;");
-        encodeMap.put(8596, "&harr;");
-        encodeMap.put(8660, "&hArr;");
-        encodeMap.put(9829, "&hearts;");
-        encodeMap.put(8230, "&hellip;");
-        encodeMap.put(205, "&Iacute;");
-        encodeMap.put(237, "&iacute;");
-        encodeMap.put(206, "&Icirc;");
-        encodeMap.put(238, "&icirc;");
-        encodeMap.put(161, "&iexcl;");
-        encodeMap.put(204, "&Igrave;");
-        encodeMap.put(236, "&igrave;");
-        encodeMap.put(8465, "&image;");
-        encodeMap.put(8734, "&infin;");
-        encodeMap.put(8747, "&int;");
-        encodeMap.put(921, "&Iota;");
-        encodeMap.put(953, "&iota;");
-        encodeMap.put(191, "&iquest;");
-        encodeMap.put(8712, "&isin;");
-        encodeMap.put(207, "&Iuml;");
-        encodeMap.put(239, "&iuml;");
-        encodeMap.put(922, "&Kappa;");
-        encodeMap.put(954, "&kappa;");
-        encodeMap.put(923, "&Lambda;");
-        encodeMap.put(955, "&lambda;");
-        encodeMap.put(9001, "&lang;");
-        encodeMap.put(171, "&laquo;");
-        encodeMap.put(8592, "&larr;");
-        encodeMap.put(8656, "&lArr;");
-        encodeMap.put(8968, "&lceil;");
-        encodeMap.put(8220, "&ldquo;");
-        encodeMap.put(8804, "&le;");
-        encodeMap.put(8970, "&lfloor;");
-        encodeMap.put(8727, "&lowast;");
-        encodeMap.put(9674, "&loz;");
-        encodeMap.put(8206, "&lrm;");
-        encodeMap.put(8249, "&lsaquo;");
-        encodeMap.put(8216, "&lsquo;");
-        encodeMap.put(175, "&macr;");
-        encodeMap.put(8212, "&mdash;");
-        encodeMap.put(181, "&micro;");
-        encodeMap.put(183, "&middot;");
-        encodeMap.put(8722, "&minus;");
-        encodeMap.put(924, "&Mu;");
-        encodeMap.put(956, "&mu;");
-        encodeMap.put(8711, "&nabla;");
-        encodeMap.put(160, "&nbsp;");
-        encodeMap.put(8211, "&ndash;");
-        encodeMap.put(8800, "&ne;");
-        encodeMap.put(8715, "&ni;");
-        encodeMap.put(172, "&not;");
-        encodeMap.put(8713, "&notin;");
-        encodeMap.put(8836, "&nsub;");
-        encodeMap.put(209, "&Ntilde;");
-        encodeMap.put(241, "&ntilde;");
-        encodeMap.put(925, "&Nu;");
-        encodeMap.put(957, "&nu;");
-        encodeMap.put(211, "&Oacute;");
-        encodeMap.put(243, "&oacute;");
-        encodeMap.put(212, "&Ocirc;");
-        encodeMap.put(244, "&ocirc;");
-        encodeMap.put(338, "&OElig;");
-        encodeMap.put(339, "&oelig;");
-        encodeMap.put(210, "&Ograve;");
-        encodeMap.put(242, "&ograve;");
-        encodeMap.put(8254, "&oline;");
-        encodeMap.put(937, "&Omega;");
-        encodeMap.put(969, "&omega;");
-        encodeMap.put(927, "&Omicron;");
-        encodeMap.put(959, "&omicron;");
-        encodeMap.put(8853, "&oplus;");
-        encodeMap.put(8744, "&or;");
-        encodeMap.put(170, "&ordf;");
-        encodeMap.put(186, "&ordm;");
-        encodeMap.put(216, "&Oslash;");
-        encodeMap.put(248, "&oslash;");
-        encodeMap.put(213, "&Otilde;");
-        encodeMap.put(245, "&otilde;");
-        encodeMap.put(8855, "&otimes;");
-        encodeMap.put(214, "&Ouml;");
-        encodeMap.put(246, "&ouml;");
-        encodeMap.put(182, "&para;");
-        encodeMap.put(8706, "&part;");
-        encodeMap.put(8240, "&permil;");
-        encodeMap.put(8869, "&perp;");
-        encodeMap.put(934, "&Phi;");
-        encodeMap.put(966, "&phi;");
-        encodeMap.put(928, "&Pi;");
-        encodeMap.put(960, "&pi;");
-        encodeMap.put(982, "&piv;");
-        encodeMap.put(177, "&plusmn;");
-        encodeMap.put(163, "&pound;");
-        encodeMap.put(8242, "&prime;");
-        encodeMap.put(8243, "&Prime;");
-        encodeMap.put(8719, "&prod;");
-        encodeMap.put(8733, "&prop;");
-        encodeMap.put(936, "&Psi;");
-        encodeMap.put(968, "&psi;");
-        encodeMap.put(8730, "&radic;");
-        encodeMap.put(9002, "&rang;");
-        encodeMap.put(187, "&raquo;");
-        encodeMap.put(8594, "&rarr;");
-        encodeMap.put(8658, "&rArr;");
-        encodeMap.put(8969, "&rceil;");
-        encodeMap.put(8221, "&rdquo;");
-        encodeMap.put(8476, "&real;");
-        encodeMap.put(174, "&reg;");
-        encodeMap.put(8971, "&rfloor;");
-        encodeMap.put(929, "&Rho;");
-        encodeMap.put(961, "&rho;");
-        encodeMap.put(8207, "&rlm;");
-        encodeMap.put(8250, "&rsaquo;");
-        encodeMap.put(8217, "&rsquo;");
-        encodeMap.put(8218, "&sbquo;");
-        encodeMap.put(352, "&Scaron;");
-        encodeMap.put(353, "&scaron;");
-        encodeMap.put(8901, "&sdot;");
-        encodeMap.put(167, "&sect;");
-        encodeMap.put(173, "&shy;");
-        encodeMap.put(931, "&Sigma;");
-        encodeMap.put(963, "&sigma;");
-        encodeMap.put(962, "&sigmaf;");
-        encodeMap.put(8764, "&sim;");
-        encodeMap.put(9824, "&spades;");
-        encodeMap.put(8834, "&sub;");
-        encodeMap.put(8838, "&sube;");
-        encodeMap.put(8721, "&sum;");
-        encodeMap.put(185, "&sup1;");
-        encodeMap.put(178, "&sup2;");
-        encodeMap.put(179, "&sup3;");
-        encodeMap.put(8835, "&sup;");
-        encodeMap.put(8839, "&supe;");
-        encodeMap.put(223, "&szlig;");
-        encodeMap.put(932, "&Tau;");
-        encodeMap.put(964, "&tau;");
-        encodeMap.put(8756, "&there4;");
-        encodeMap.put(920, "&Theta;");
-        encodeMap.put(952, "&theta;");
-        encodeMap.put(977, "&thetasym;");
-        encodeMap.put(8201, "&thinsp;");
-        encodeMap.put(222, "&THORN;");
-        encodeMap.put(254, "&thorn;");
-        encodeMap.put(732, "&tilde;");
-        encodeMap.put(215, "&times;");
-        encodeMap.put(8482, "&trade;");
-        encodeMap.put(218, "&Uacute;");
-        encodeMap.put(250, "&uacute;");
-        encodeMap.put(8593, "&uarr;");
-        encodeMap.put(8657, "&uArr;");
-        encodeMap.put(219, "&Ucirc;");
-        encodeMap.put(251, "&ucirc;");
-        encodeMap.put(217, "&Ugrave;");
-        encodeMap.put(249, "&ugrave;");
-        encodeMap.put(168, "&uml;");
-        encodeMap.put(978, "&upsih;");
-        encodeMap.put(933, "&Upsilon;");
-        encodeMap.put(965, "&upsilon;");
-        encodeMap.put(220, "&Uuml;");
-        encodeMap.put(252, "&uuml;");
-        encodeMap.put(8472, "&weierp;");
-        encodeMap.put(926, "&Xi;");
-        encodeMap.put(958, "&xi;");
-        encodeMap.put(221, "&Yacute;");
-        encodeMap.put(253, "&yacute;");
-        encodeMap.put(165, "&yen;");
-        encodeMap.put(255, "&yuml;");
-        encodeMap.put(376, "&Yuml;");
-        encodeMap.put(918, "&Zeta;");
-        encodeMap.put(950, "&zeta;");
-        encodeMap.put(8205, "&zwj;");
-        encodeMap.put(8204, "&zwnj;");
-    }
-
-    /**
-     * The revese version of {@link #encodeMap}.
-     */
-    static final Map<String, Integer> decodeMap =
-            new HashMap<String, Integer>(initialMapSize);
-    // map value:key
-    static {
-            Set<Integer> codes = encodeMap.keySet();
-            for (Integer code : codes) {
-                decodeMap.put(encodeMap.get(code), code);
-            }
+     * One bit for each character &lt; 64 which is encoded, to scan for the
+     * first entity without a <code>switch</code> per character. A constant, so
+     * there is nothing to initialize.
+     */
+    static final long markupBits = 1L << lt | 1L << gt | 1L << amp
+            | 1L << quot | 1L << apos;
+
+    /**
+     * @return <code>true</code> if <code>c &lt; 128</code> has to be encoded
+     */
+    static boolean isMarkup(char c) {
+        return c < 64 && (markupBits & 1L << c) != 0;
     }
+
+    /**
+     * The first character with an HTML entity: <code>&amp;nbsp;</code>
+     */
+    static final int latin1Offset = 0x00A0;
+
+    /**
+     * Looks up the HTML entity of <code>c &gt; 127</code> in the generated
+     * {@link EncodeTable} without boxing: direct addressing for Latin-1, a
+     * binary search for all others.
+     * 
+     * @return the index in {@link EncodeTable#codes} or <code>-1</code>
+     */
+    static int htmlEntityOf(char c) {
+        if (c < latin1Offset) {
+            return -1;
+        }
+        if (c <= 0xFF) {
+            return c - latin1Offset;
+        }
+        char[] bits = EncodeTable.bits;
+        if (c >> 4 >= bits.length || (bits[c >> 4] & 1 << (c & 15)) == 0) {
+            return -1;
+        }
+
+        return Arrays.binarySearch(EncodeTable.codes, c);
+    }
+
+    /**
+     * The length of the longest numeric reference without <code>;</code>
+     * like <code>&amp;#x00000E4</code>
+     */
+    static final int maxNumericLength = 10;
+
+    /**
+     * The length of the longest reference without <code>;</code>, which is
+     * longer than {@link #maxNumericLength}
+     */
+    static final int maxReferenceLength = 1 + EntityTable.maxNameLength;
 }
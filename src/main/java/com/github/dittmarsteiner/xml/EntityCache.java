@@ -0,0 +1,364 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Memoizes {@link Entities#encodeHtml(String)} and the like for short
+ * {@link String}s which are encoded or decoded over and over, e.g. titles,
+ * brand names and attribute values of a catalog:
+ * 
+ * <pre>
+ * static final EntityCache titles = EntityCache.html(16 &lt;&lt; 20, 64);
+ * ...
+ * String html = titles.get(title);
+ * </pre>
+ * 
+ * Only a {@link String} of at most <code>maxLength</code> characters is
+ * cached, a longer one is passed through. The cache is bounded by an
+ * estimate of the bytes of its keys and values, see {@link #bytes()}.
+ * <p>
+ * The entries are spread over several segments by hash, each a least
+ * recently used list under its own lock, so threads rarely wait for each
+ * other. The lock is a {@link ReentrantLock}, not a monitor, so a virtual
+ * thread waiting for it gives its carrier thread to others.
+ * <p>
+ * A full segment admits a new {@link String} only if it has been asked
+ * for more often than each of the least recently used ones it would evict.
+ * The frequencies are estimated by a small sketch of counters which are
+ * halved from time to time, so a scan over many {@link String}s which are
+ * needed only once does not flush the frequent ones out.
+ * <p>
+ * A hit saves the encoding, but a miss costs a little more than no cache,
+ * so <code>maxBytes</code> should hold the {@link String}s asked for
+ * most. Without a cache {@link Entities} is not affected at all.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityCache {
+
+    static final int html = 0, xml = 1, asciiXml = 2, decode = 3;
+
+    static final int hits = 0, misses = 1, evictions = 2, bytes = 3;
+
+    /**
+     * Estimated bytes of an entry apart from its characters: the map entry
+     * and the headers of two {@link String}s and their arrays
+     */
+    static final int entryOverhead = 128;
+
+    final int kind;
+    final int maxLength;
+    final Segment[] segments;
+    final int mask;
+
+    EntityCache(int kind, long maxBytes, int maxLength) {
+        if (maxBytes < 0 || maxLength < 0) {
+            throw new IllegalArgumentException("negative maxBytes "
+                    + maxBytes + " or maxLength " + maxLength);
+        }
+
+        this.kind = kind;
+        this.maxLength = maxLength;
+        int n = Entities.stripes();
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(maxBytes / n);
+        }
+        mask = n - 1;
+    }
+
+    /**
+     * @param maxBytes
+     *            the estimated size of all entries at most. It is shared
+     *            equally by the segments, up to 64 depending on the
+     *            processors, so an entry larger than one share is never
+     *            cached, see {@link #maxEntryBytes()}
+     * @param maxLength
+     *            the length of the longest {@link String} to cache
+     * @return a cache of {@link Entities#encodeHtml(String)}
+     */
+    public static EntityCache html(long maxBytes, int maxLength) {
+        return new EntityCache(html, maxBytes, maxLength);
+    }
+
+    /**
+     * @return a cache of {@link Entities#encodeXml(String)}
+     * @see #html(long, int)
+     */
+    public static EntityCache xml(long maxBytes, int maxLength) {
+        return new EntityCache(xml, maxBytes, maxLength);
+    }
+
+    /**
+     * @return a cache of {@link Entities#encodeAsciiXml(String)}
+     * @see #html(long, int)
+     */
+    public static EntityCache asciiXml(long maxBytes, int maxLength) {
+        return new EntityCache(asciiXml, maxBytes, maxLength);
+    }
+
+    /**
+     * @return a cache of {@link Entities#decode(String)}
+     * @see #html(long, int)
+     */
+    public static EntityCache decode(long maxBytes, int maxLength) {
+        return new EntityCache(decode, maxBytes, maxLength);
+    }
+
+    /**
+     * @return the encoded or decoded <code>str</code>, from the cache if
+     *         possible
+     */
+    public String get(String str) {
+        if (str == null || str.length() > maxLength) {
+            return apply(str);
+        }
+
+        int h = str.hashCode();
+        h ^= h >>> 16;
+        Segment segment = segments[h & mask];
+        String value = segment.get(str, h);
+        if (value == null) {
+            // outside of the lock
+            value = apply(str);
+            segment.put(str, value, h);
+        }
+
+        return value;
+    }
+
+    String apply(String str) {
+        switch (kind) {
+            case html:
+                return Entities.encodeHtml(str);
+            case xml:
+                return Entities.encodeXml(str);
+            case asciiXml:
+                return Entities.encodeAsciiXml(str);
+            default:
+                return Entities.decode(str);
+        }
+    }
+
+    /**
+     * @return how often a {@link String} was found in the cache
+     */
+    public long hits() {
+        return sum(hits);
+    }
+
+    /**
+     * @return how often a {@link String} short enough was not found,
+     *         whether it was cached afterwards or not
+     */
+    public long misses() {
+        return sum(misses);
+    }
+
+    /**
+     * @return how often an entry was evicted for a more frequent one
+     */
+    public long evictions() {
+        return sum(evictions);
+    }
+
+    /**
+     * @return the estimated size of all entries: two bytes per character
+     *         of key and value, the value only if it differs from the key,
+     *         plus {@link #entryOverhead}
+     */
+    public long bytes() {
+        return sum(bytes);
+    }
+
+    /**
+     * @return the estimated size of the largest entry which is cached: the
+     *         share of one segment of <code>maxBytes</code>, see
+     *         {@link #bytes()}
+     */
+    public long maxEntryBytes() {
+        return segments[0].maxBytes;
+    }
+
+    /**
+     * Removes all entries, the statistics and the frequencies.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.reset();
+        }
+    }
+
+    long sum(int counter) {
+        long sum = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                sum += segment.stats[counter];
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+
+        return sum;
+    }
+
+    static long weight(String key, String value) {
+        return entryOverhead
+                + 2L * (key.length() + (value == key ? 0 : value.length()));
+    }
+
+    /**
+     * A least recently used list with the frequency sketch for its
+     * admission, all guarded by its {@link #lock}
+     */
+    @SuppressWarnings("serial")
+    static class Segment extends LinkedHashMap<String, String> {
+
+        /**
+         * Mixes the hash differently for each of the four counters
+         */
+        static final int[] seeds = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35,
+                0x27D4EB2F };
+
+        final ReentrantLock lock = new ReentrantLock();
+        final long maxBytes;
+        final long[] stats = new long[4];
+        /**
+         * Saturate at 15, halved after <code>10 * counts.length</code>
+         * additions
+         */
+        final byte[] counts;
+        int additions;
+
+        Segment(long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+            // a few counters per entry of a few characters
+            int n = (int) Math.min(Math.max(maxBytes / 64, 256), 1 << 20);
+            counts = new byte[Integer.highestOneBit(n - 1) << 1];
+        }
+
+        String get(String key, int h) {
+            lock.lock();
+            try {
+                increment(h);
+                String value = get(key);
+                stats[value != null ? hits : misses]++;
+
+                return value;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String key, String value, int h) {
+            lock.lock();
+            try {
+                admit(key, value, h);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void admit(String key, String value, int h) {
+            long weight = weight(key, value);
+            if (weight > maxBytes || containsKey(key)) {
+                return;
+            }
+
+            // each victim must be asked for less often than the new one
+            long free = maxBytes - stats[bytes];
+            int frequency = free < weight ? frequency(h) : 0;
+            for (Iterator<Map.Entry<String, String>> victims = entrySet()
+                    .iterator(); free < weight;) {
+                Map.Entry<String, String> victim = victims.next();
+                int v = victim.getKey().hashCode();
+                if (frequency <= frequency(v ^ v >>> 16)) {
+                    return;
+                }
+                free += weight(victim.getKey(), victim.getValue());
+            }
+
+            Iterator<Map.Entry<String, String>> eldest = entrySet()
+                    .iterator();
+            while (stats[bytes] + weight > maxBytes) {
+                Map.Entry<String, String> victim = eldest.next();
+                stats[bytes] -= weight(victim.getKey(), victim.getValue());
+                eldest.remove();
+                stats[evictions]++;
+            }
+            super.put(key, value);
+            stats[bytes] += weight;
+        }
+
+        void reset() {
+            lock.lock();
+            try {
+                clear();
+                Arrays.fill(stats, 0);
+                Arrays.fill(counts, (byte) 0);
+                additions = 0;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void increment(int h) {
+            for (int i = 0; i < seeds.length; i++) {
+                int k = index(h, i);
+                if (counts[k] < 15) {
+                    counts[k]++;
+                }
+            }
+            if (++additions == 10 * counts.length) {
+                // forgets slowly what is not asked for anymore
+                for (int k = 0; k < counts.length; k++) {
+                    counts[k] >>= 1;
+                }
+                additions = 0;
+            }
+        }
+
+        int frequency(int h) {
+            int min = 15;
+            for (int i = 0; i < seeds.length; i++) {
+                min = Math.min(min, counts[index(h, i)]);
+            }
+
+            return min;
+        }
+
+        int index(int h, int i) {
+            int x = h * seeds[i];
+
+            return (x ^ x >>> 16) & (counts.length - 1);
+        }
+    }
+}
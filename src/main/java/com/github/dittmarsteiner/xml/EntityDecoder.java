@@ -0,0 +1,188 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+
+/**
+ * Decodes like {@link Entities#decode(java.io.Reader, java.io.Writer)}, but
+ * the caller pushes the input chunk by chunk, like into a
+ * {@link java.nio.charset.CharsetDecoder}. So it fits into non-blocking I/O
+ * without a thread per stream and without buffering the whole text.
+ * <p>
+ * A reference split between two chunks like <code>&amp;Au</code> +
+ * <code>ml;</code> is kept in a buffer of fixed size.
+ * 
+ * <pre>
+ * EntityDecoder decoder = new EntityDecoder();
+ * while (...) {
+ *     decoder.feed(in, out); // as often as there is input
+ * }
+ * decoder.finish(out);
+ * </pre>
+ * <p>
+ * An instance is not thread-safe, but reusable: after {@link #reset()} or by
+ * {@link #decode(String)} and
+ * {@link #decode(char[], int, int, char[], int)}, which keep their buffers
+ * from call to call.
+ * 
+ * @see EntityEncoder
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityDecoder {
+
+    final Entities.Decoder decoder = new Entities.Decoder();
+
+    /**
+     * Decoded but not yet written, because <code>out</code> was full
+     */
+    final char[] pending = new char[Entities.maxReferenceLength + 1];
+    int pendingOff, pendingEnd;
+
+    /**
+     * For {@link #decode(String)}, <code>null</code> until the first call
+     */
+    char[] chars;
+
+    /**
+     * Discards a pending reference and pending output, to start a new text.
+     * 
+     * @return this decoder
+     */
+    public EntityDecoder reset() {
+        decoder.len = 0;
+        pendingOff = pendingEnd = 0;
+
+        return this;
+    }
+
+    /**
+     * Like {@link Entities#decode(String)}, but the copy to decode in place
+     * is kept for the next call, up to {@link Entities#maxRetainedLength}
+     * characters. Resets this decoder.
+     * 
+     * @param encoded
+     *            XML or HTML String to decode
+     * @return the decoded Unicode-String
+     */
+    public String decode(String encoded) {
+        int first = encoded.indexOf(Entities.amp);
+        if (first < 0) {
+            // as is
+            return encoded;
+        }
+
+        int len = encoded.length();
+        char[] chars = this.chars;
+        if (chars == null || chars.length < len) {
+            chars = new char[Math.max(len, Entities.bufferSize)];
+            if (len <= Entities.maxRetainedLength) {
+                this.chars = chars;
+            }
+        }
+        encoded.getChars(0, len, chars, 0);
+
+        return new String(chars, 0,
+                first + decode(chars, first, len - first, chars, first));
+    }
+
+    /**
+     * Like {@link Entities#decode(char[], int, int, char[], int)}, without a
+     * new state machine per call. Resets this decoder.
+     * 
+     * @return the number of characters written to <code>dst</code>
+     * @throws IndexOutOfBoundsException
+     *             if <code>src</code> or <code>dst</code> is too short
+     */
+    public int decode(char[] src, int off, int len, char[] dst, int dstOff) {
+        reset();
+        int d = decoder.decode(src, off, off + len, dst, dstOff);
+
+        return decoder.finish(dst, d) - dstOff;
+    }
+
+    /**
+     * Decodes as much of <code>in</code> into <code>out</code> as there is
+     * room. The end of <code>in</code> is not the end of the text: a
+     * reference at the end waits for the next call.
+     * 
+     * @return {@link CoderResult#UNDERFLOW} if all of <code>in</code> is
+     *         consumed, {@link CoderResult#OVERFLOW} if <code>out</code> is
+     *         full
+     */
+    public CoderResult feed(CharBuffer in, CharBuffer out) {
+        Entities.Decoder decoder = this.decoder;
+        while (drain(out) && out.hasRemaining()) {
+            if (!in.hasRemaining()) {
+                return CoderResult.UNDERFLOW;
+            }
+
+            if (decoder.len == 0) {
+                // up to the next reference as is
+                int start = in.position();
+                int end = start + Math.min(in.remaining(), out.remaining());
+                int i = start;
+                while (i < end && in.get(i) != Entities.amp) {
+                    i++;
+                }
+                Entities.copy(in, i - start, out);
+                if (i < end) {
+                    in.get();
+                    decoder.begin();
+                }
+                continue;
+            }
+
+            pendingOff = 0;
+            pendingEnd = decoder.decode(in.get(), pending, 0);
+        }
+
+        return CoderResult.OVERFLOW;
+    }
+
+    /**
+     * Ends the text and writes a pending reference.
+     * 
+     * @return {@link CoderResult#UNDERFLOW} if done,
+     *         {@link CoderResult#OVERFLOW} if <code>out</code> is full: call
+     *         again with more room
+     */
+    public CoderResult finish(CharBuffer out) {
+        if (drain(out) && decoder.len > 0) {
+            pendingOff = 0;
+            pendingEnd = decoder.finish(pending, 0);
+        }
+
+        return drain(out) ? CoderResult.UNDERFLOW : CoderResult.OVERFLOW;
+    }
+
+    /**
+     * Writes as much of {@link #pending} as fits.
+     * 
+     * @return <code>true</code> if nothing is pending anymore
+     */
+    boolean drain(CharBuffer out) {
+        int n = Math.min(pendingEnd - pendingOff, out.remaining());
+        out.put(pending, pendingOff, n);
+        pendingOff += n;
+
+        return pendingOff == pendingEnd;
+    }
+}
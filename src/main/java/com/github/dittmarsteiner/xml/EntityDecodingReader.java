@@ -0,0 +1,170 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Decodes like {@link Entities#decode(Reader, java.io.Writer)} lazily, while
+ * the caller reads, e.g. as a stage of a pipeline in front of a parser. A
+ * read of more than {@link Entities#maxReferenceLength} characters is
+ * decoded straight into the caller's array, smaller ones from a buffer of
+ * fixed size.
+ * <p>
+ * A reference split between two reads of the underlying {@link Reader} is
+ * kept like by {@link EntityDecoder}, so the memory does not grow with the
+ * text.
+ * 
+ * <pre>
+ * Reader reader = new EntityDecodingReader(in);
+ * parser.parse(reader);
+ * reader.close();
+ * </pre>
+ * <p>
+ * An instance is not thread-safe. {@link #mark(int)} is not supported.
+ * 
+ * @see EntityEncodingWriter
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityDecodingReader extends FilterReader {
+
+    final Entities.Decoder decoder = new Entities.Decoder();
+
+    /**
+     * Read from the underlying {@link Reader}
+     */
+    final char[] buf = new char[Entities.bufferSize];
+    /**
+     * Decoded for small reads, from <code>pos</code> to <code>limit</code>
+     * not read yet
+     */
+    char[] decoded;
+    int pos, limit;
+    boolean endOfInput;
+    /**
+     * For {@link #read()}
+     */
+    final char[] one = new char[1];
+
+    /**
+     * @param in
+     *            to decode
+     */
+    public EntityDecodingReader(Reader in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(one, 0, 1) < 0 ? -1 : one[0];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len <= 0) {
+            return 0;
+        }
+
+        while (pos == limit) {
+            if (endOfInput) {
+                return -1;
+            }
+
+            // a large read has room for a pending reference
+            boolean direct = len > Entities.maxReferenceLength;
+            if (!direct && decoded == null) {
+                decoded = new char[Entities.bufferSize
+                        + Entities.maxReferenceLength];
+            }
+            char[] dst = direct ? cbuf : decoded;
+            int dstOff = direct ? off : 0;
+            int n = in.read(buf, 0, direct ? Math.min(buf.length,
+                    len - Entities.maxReferenceLength) : buf.length);
+            int d;
+            if (n < 0) {
+                endOfInput = true;
+                d = decoder.finish(dst, dstOff) - dstOff;
+            }
+            else {
+                d = decoder.decode(buf, 0, n, dst, dstOff) - dstOff;
+            }
+            if (direct) {
+                if (d > 0) {
+                    return d;
+                }
+            }
+            else {
+                pos = 0;
+                limit = d;
+            }
+        }
+
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(decoded, pos, cbuf, off, n);
+        pos += n;
+
+        return n;
+    }
+
+    /**
+     * Skips decoded characters.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("skip value is negative");
+        }
+
+        char[] skipped = new char[(int) Math.min(n, Entities.bufferSize)];
+        long left = n;
+        for (int r; left > 0 && (r = read(skipped, 0,
+                (int) Math.min(left, skipped.length))) >= 0;) {
+            left -= r;
+        }
+
+        return n - left;
+    }
+
+    /**
+     * @return <code>true</code> if decoded characters are buffered or the
+     *         underlying {@link Reader} is ready, which does not guarantee
+     *         that a read does not block on a pending reference
+     */
+    @Override
+    public boolean ready() throws IOException {
+        return pos < limit || in.ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+
+/**
+ * Encodes like {@link Entities#encodeHtml(java.io.Reader, java.io.Writer)},
+ * {@link Entities#encodeXml(java.io.Reader, java.io.Writer)} or
+ * {@link Entities#encodeAsciiXml(java.io.Reader, java.io.Writer)}, but the
+ * caller pushes the input chunk by chunk, like into a
+ * {@link java.nio.charset.CharsetEncoder}.
+ * <p>
+ * A surrogate pair split between two chunks is still encoded as one code
+ * point.
+ * <p>
+ * An instance is not thread-safe, but reusable: after {@link #reset()} or by
+ * {@link #encode(String)}, which keeps its {@link StringBuilder} from call to
+ * call. So one per thread, e.g. in a {@link ThreadLocal}, or in a pool
+ * encodes without garbage apart from the result.
+ * 
+ * @see EntityDecoder
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityEncoder {
+
+    final boolean xml, ascii;
+
+    /**
+     * Encoded but not yet written, because <code>out</code> was full
+     */
+    final char[] pending = new char[Entities.maxNumericLength + 1];
+    int pendingOff, pendingEnd;
+    /**
+     * A high surrogate at the end of the last input, <code>0</code> if none
+     */
+    char high;
+
+    /**
+     * For {@link #encode(String)}
+     */
+    StringBuilder sb = new StringBuilder(Entities.bufferSize);
+
+    EntityEncoder(boolean xml, boolean ascii) {
+        this.xml = xml;
+        this.ascii = ascii;
+    }
+
+    /**
+     * @return a new encoder like {@link Entities#encodeHtml(String)}
+     */
+    public static EntityEncoder html() {
+        return new EntityEncoder(false, false);
+    }
+
+    /**
+     * @return a new encoder like {@link Entities#encodeXml(String)}
+     */
+    public static EntityEncoder xml() {
+        return new EntityEncoder(true, false);
+    }
+
+    /**
+     * @return a new encoder like {@link Entities#encodeAsciiXml(String)}
+     */
+    public static EntityEncoder asciiXml() {
+        return new EntityEncoder(true, true);
+    }
+
+    /**
+     * Discards a pending high surrogate and pending output, to start a new
+     * text.
+     * 
+     * @return this encoder
+     */
+    public EntityEncoder reset() {
+        high = 0;
+        pendingOff = pendingEnd = 0;
+
+        return this;
+    }
+
+    /**
+     * Like {@link Entities#encodeHtml(String)},
+     * {@link Entities#encodeXml(String)} or
+     * {@link Entities#encodeAsciiXml(String)}, but into a
+     * {@link StringBuilder} kept for the next call, up to
+     * {@link Entities#maxRetainedLength} characters. Independent of
+     * {@link #feed(CharBuffer, CharBuffer)}.
+     * 
+     * @param str
+     *            the String to encode
+     * @return the encoded String, or <code>str</code> itself if there is
+     *         nothing to encode, <code>""</code> for <code>null</code>
+     */
+    public String encode(String str) {
+        if (str == null) {
+            return "";
+        }
+
+        int len = str.length();
+        int first = Entities.indexOfEntity(str, 0, len, xml, ascii);
+        if (first < 0) {
+            // as is
+            return str;
+        }
+
+        StringBuilder sb = this.sb;
+        sb.setLength(0);
+        sb.ensureCapacity(Entities.capacity(str, first, len, xml, ascii));
+        sb.append(str, 0, first);
+        Entities.encode(str, first, len, sb, xml, ascii);
+        String encoded = sb.toString();
+        if (sb.length() > Entities.maxRetainedLength) {
+            this.sb = new StringBuilder(Entities.bufferSize);
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Encodes as much of <code>in</code> into <code>out</code> as there is
+     * room. An entity which does not fit completely is written by the next
+     * call.
+     * 
+     * @return {@link CoderResult#UNDERFLOW} if all of <code>in</code> is
+     *         consumed, {@link CoderResult#OVERFLOW} if <code>out</code> is
+     *         full
+     */
+    public CoderResult feed(CharBuffer in, CharBuffer out) {
+        while (drain(out) && out.hasRemaining()) {
+            if (!in.hasRemaining()) {
+                return CoderResult.UNDERFLOW;
+            }
+
+            if (high != 0) {
+                int code = high;
+                if (Character.isLowSurrogate(in.get(in.position()))) {
+                    code = Character.toCodePoint(high, in.get());
+                }
+                high = 0;
+                numericEntity(code);
+                continue;
+            }
+
+            // up to the next entity as is
+            int start = in.position();
+            int end = start + Math.min(in.remaining(), out.remaining());
+            int i = start;
+            char c = 0;
+            while (i < end) {
+                c = in.get(i);
+                if (c < 128 ? Entities.isMarkup(c)
+                        : Entities.isEntity(c, xml, ascii)) {
+                    break;
+                }
+                i++;
+            }
+            Entities.copy(in, i - start, out);
+            if (i == end) {
+                continue;
+            }
+
+            in.get();
+            if (c < 128) {
+                pendingOff = 0;
+                String entity = Entities.markupEntityOf(c);
+                pendingEnd = entity.length();
+                entity.getChars(0, pendingEnd, pending, 0);
+            }
+            else if (!ascii && !xml) {
+                char[] offsets = EncodeTable.nameOffsets;
+                pendingOff = 0;
+                int e = Entities.htmlEntityOf(c);
+                pendingEnd = offsets[e + 1] - offsets[e];
+                System.arraycopy(EncodeTable.names, offsets[e], pending, 0,
+                        pendingEnd);
+            }
+            else if (Character.isHighSurrogate(c)) {
+                // waits for the low one
+                high = c;
+            }
+            else {
+                numericEntity(c);
+            }
+        }
+
+        return CoderResult.OVERFLOW;
+    }
+
+    /**
+     * Ends the text and writes a pending high surrogate.
+     * 
+     * @return {@link CoderResult#UNDERFLOW} if done,
+     *         {@link CoderResult#OVERFLOW} if <code>out</code> is full: call
+     *         again with more room
+     */
+    public CoderResult finish(CharBuffer out) {
+        if (drain(out) && high != 0) {
+            numericEntity(high);
+            high = 0;
+        }
+
+        return drain(out) ? CoderResult.UNDERFLOW : CoderResult.OVERFLOW;
+    }
+
+    void numericEntity(int code) {
+        pendingOff = 0;
+        pendingEnd = Entities.numericEntity(code, pending);
+    }
+
+    /**
+     * Writes as much of {@link #pending} as fits.
+     * 
+     * @return <code>true</code> if nothing is pending anymore
+     */
+    boolean drain(CharBuffer out) {
+        int n = Math.min(pendingEnd - pendingOff, out.remaining());
+        out.put(pending, pendingOff, n);
+        pendingOff += n;
+
+        return pendingOff == pendingEnd;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Encodes everything written to it by an {@link EscapePolicy} into the
+ * underlying {@link Writer}, e.g. as a stage of a pipeline where a
+ * serializer writes the text. The runs which need no escaping are passed on
+ * in bulk, as they were written.
+ * <p>
+ * A high surrogate at the end of a write waits for the low one of the next
+ * write, so a surrogate pair is still encoded as one code point. It is
+ * written by {@link #close()}, not by {@link #flush()}. The encoded text is
+ * buffered up to {@link Entities#bufferSize} characters without a lock and
+ * passed on in large writes, by {@link #flush()} and {@link #close()} at
+ * the latest, so the memory does not grow with the text.
+ * 
+ * <pre>
+ * Writer writer = new EntityEncodingWriter(out, EscapePolicy.XML);
+ * serializer.write(writer);
+ * writer.close();
+ * </pre>
+ * <p>
+ * An instance is not thread-safe.
+ * 
+ * @see EntityDecodingReader
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityEncodingWriter extends FilterWriter {
+
+    final EscapePolicy policy;
+    final Entities.Output output;
+
+    /**
+     * A high surrogate at the end of the last write, <code>0</code> if none
+     */
+    char high;
+    /**
+     * For {@link #write(int)}, a pending high surrogate with its low one and
+     * numeric references
+     */
+    final char[] one = new char[1], pair = new char[2],
+            scratch = new char[Entities.maxNumericLength + 1];
+    /**
+     * For {@link #write(String, int, int)}, grows up to
+     * {@link Entities#bufferSize}
+     */
+    char[] chunk;
+    boolean closed;
+
+    /**
+     * Encodes like {@link Entities#encodeHtml(java.io.Reader, Writer)}, by
+     * {@link EscapePolicy#HTML}.
+     * 
+     * @param out
+     *            to write the encoded text to
+     */
+    public EntityEncodingWriter(Writer out) {
+        this(out, EscapePolicy.HTML);
+    }
+
+    /**
+     * @param out
+     *            to write the encoded text to
+     * @param policy
+     *            for example {@link EscapePolicy#XML} like
+     *            {@link Entities#encodeXml(java.io.Reader, Writer)}
+     */
+    public EntityEncodingWriter(Writer out, EscapePolicy policy) {
+        super(out);
+        this.policy = policy;
+        this.output = new Entities.Output(out, Entities.bufferSize);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        one[0] = (char) c;
+        write(one, 0, 1);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        int end = off + len;
+        if (high != 0 && off < end) {
+            pair[0] = high;
+            high = 0;
+            if (Character.isLowSurrogate(cbuf[off])) {
+                pair[1] = cbuf[off++];
+                policy.encode(pair, 0, 2, output, scratch);
+            }
+            else {
+                policy.encode(pair, 0, 1, output, scratch);
+            }
+        }
+        // waits for the low one of the next write
+        if (off < end && Character.isHighSurrogate(cbuf[end - 1])) {
+            high = cbuf[--end];
+        }
+        policy.encode(cbuf, off, end, output, scratch);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        if (len > 0 && (chunk == null
+                || chunk.length < len && chunk.length < Entities.bufferSize)) {
+            chunk = new char[Math.min(len, Entities.bufferSize)];
+        }
+        while (len > 0) {
+            int n = Math.min(len, chunk.length);
+            str.getChars(off, off + n, chunk, 0);
+            write(chunk, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the buffered text and flushes the underlying {@link Writer}.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        output.flush();
+    }
+
+    /**
+     * Encodes a pending high surrogate on its own, writes the buffered text
+     * and closes the underlying {@link Writer}. Has no effect if already
+     * closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            if (high != 0) {
+                one[0] = high;
+                high = 0;
+                policy.encode(one, 0, 1, output, scratch);
+            }
+            output.drain();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("closed");
+        }
+    }
+}
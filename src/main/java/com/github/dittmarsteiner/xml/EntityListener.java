@@ -0,0 +1,67 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+/**
+ * Receives the numbers of every call of the <code>char</code> based methods
+ * of {@link Entities}: <code>String</code>, <code>CharSequence</code>,
+ * <code>char[]</code>, {@link java.io.Reader}/{@link java.io.Writer} and the
+ * parallel ones, which report each chunk. Set by
+ * {@link Entities#setListener(EntityListener)}, without a listener nothing
+ * is counted or timed.
+ * <p>
+ * Called by the thread which encoded or decoded, so an implementation has
+ * to be thread-safe and should return quickly, like {@link EntityMetrics}.
+ * It may also record a large call in detail, e.g. as a JFR event on Java
+ * 11 and later.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public interface EntityListener {
+
+    /**
+     * @param chars
+     *            the characters read
+     * @param encodedChars
+     *            the characters written, <code>encodedChars - chars</code>
+     *            is the expansion
+     * @param entities
+     *            the characters written as an entity, a surrogate pair
+     *            counts once
+     * @param nanos
+     *            the time of the call
+     */
+    void encoded(long chars, long encodedChars, long entities, long nanos);
+
+    /**
+     * @param chars
+     *            the characters read
+     * @param decodedChars
+     *            the characters written
+     * @param references
+     *            every <code>&amp;</code>
+     * @param malformed
+     *            the <code>&amp;</code> which started no known reference and
+     *            were written as is, like <code>&amp;xAD;</code>
+     * @param nanos
+     *            the time of the call
+     */
+    void decoded(long chars, long decodedChars, long references,
+            long malformed, long nanos);
+}
@@ -0,0 +1,167 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sums up what goes through {@link Entities}:
+ * 
+ * <pre>
+ * EntityMetrics metrics = new EntityMetrics();
+ * Entities.setListener(metrics);
+ * ...
+ * long expansion = metrics.encodedChars() - metrics.encodeChars();
+ * </pre>
+ * 
+ * Each thread adds to one of several stripes of counters, so threads on
+ * different cores rarely update the same cache line. Only reading sums the
+ * stripes up, a sum is not a snapshot of all counters at one moment.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityMetrics implements EntityListener {
+
+    static final int encodeCalls = 0, encodeChars = 1, encodedChars = 2,
+            entities = 3, encodeNanos = 4, decodeCalls = 5, decodeChars = 6,
+            decodedChars = 7, references = 8, malformed = 9,
+            decodeNanos = 10;
+
+    /**
+     * The counters of a stripe plus padding, 128 bytes
+     */
+    static final int stripeSize = 16;
+
+    final AtomicLongArray counters;
+    final int mask;
+
+    public EntityMetrics() {
+        int stripes = Entities.stripes();
+        counters = new AtomicLongArray(stripes * stripeSize);
+        mask = stripes - 1;
+    }
+
+    public void encoded(long chars, long encodedChars, long entities,
+            long nanos) {
+        int s = stripe();
+        counters.incrementAndGet(s + encodeCalls);
+        counters.addAndGet(s + encodeChars, chars);
+        counters.addAndGet(s + EntityMetrics.encodedChars, encodedChars);
+        counters.addAndGet(s + EntityMetrics.entities, entities);
+        counters.addAndGet(s + encodeNanos, nanos);
+    }
+
+    public void decoded(long chars, long decodedChars, long references,
+            long malformed, long nanos) {
+        int s = stripe();
+        counters.incrementAndGet(s + decodeCalls);
+        counters.addAndGet(s + decodeChars, chars);
+        counters.addAndGet(s + EntityMetrics.decodedChars, decodedChars);
+        counters.addAndGet(s + EntityMetrics.references, references);
+        counters.addAndGet(s + EntityMetrics.malformed, malformed);
+        counters.addAndGet(s + decodeNanos, nanos);
+    }
+
+    int stripe() {
+        return ((int) Thread.currentThread().getId() & mask) * stripeSize;
+    }
+
+    long sum(int counter) {
+        long sum = 0;
+        for (int i = counter; i < counters.length(); i += stripeSize) {
+            sum += counters.get(i);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Sets all counters to <code>0</code>.
+     */
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    public long encodeCalls() {
+        return sum(encodeCalls);
+    }
+
+    /**
+     * @return the characters read for encoding
+     */
+    public long encodeChars() {
+        return sum(encodeChars);
+    }
+
+    /**
+     * @return the characters written by encoding
+     */
+    public long encodedChars() {
+        return sum(encodedChars);
+    }
+
+    /**
+     * @return the characters written as an entity
+     */
+    public long entities() {
+        return sum(entities);
+    }
+
+    public long encodeNanos() {
+        return sum(encodeNanos);
+    }
+
+    public long decodeCalls() {
+        return sum(decodeCalls);
+    }
+
+    /**
+     * @return the characters read for decoding
+     */
+    public long decodeChars() {
+        return sum(decodeChars);
+    }
+
+    /**
+     * @return the characters written by decoding
+     */
+    public long decodedChars() {
+        return sum(decodedChars);
+    }
+
+    /**
+     * @return every <code>&amp;</code> read for decoding
+     */
+    public long references() {
+        return sum(references);
+    }
+
+    /**
+     * @return the <code>&amp;</code> which started no known reference
+     */
+    public long malformed() {
+        return sum(malformed);
+    }
+
+    public long decodeNanos() {
+        return sum(decodeNanos);
+    }
+}
@@ -0,0 +1,630 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides for every character whether and how it is escaped, for contexts
+ * which need more or less than {@link Entities#encodeHtml(String)},
+ * {@link Entities#encodeXml(String)} and
+ * {@link Entities#encodeAsciiXml(String)}, e.g. only <code>"</code> and
+ * <code>&amp;</code> in a double quoted attribute value:
+ * 
+ * <pre>
+ * EscapePolicy policy = EscapePolicy.builder()
+ *         .escape("\"&amp;", Action.NAMED)
+ *         .escape((char) 0x80, Character.MAX_VALUE, Action.HEX)
+ *         .build();
+ * String escaped = policy.encode(value);
+ * </pre>
+ * 
+ * The builder compiles the policy into a table with one {@link Action} per
+ * character, so encoding looks up each character once instead of testing
+ * it against several rules. The table has two stages: blocks of 256
+ * actions for the low byte, shared by all high bytes with the same actions.
+ * <p>
+ * A surrogate pair whose high surrogate is escaped numerically is written
+ * as one code point like <code>&amp;#128512;</code>. So either all
+ * surrogates pass or none, otherwise a pair would be split into a raw half
+ * and an escaped one. A policy is immutable and thread-safe.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public final class EscapePolicy {
+
+    /**
+     * What happens to a character.
+     */
+    public enum Action {
+        /**
+         * as is
+         */
+        PASS,
+        /**
+         * the markup or XHTML 1.0 name like <code>&amp;auml;</code>, or
+         * {@link #DECIMAL} if the character has none
+         */
+        NAMED,
+        /**
+         * like <code>&amp;#228;</code>
+         */
+        DECIMAL,
+        /**
+         * like <code>&amp;#xE4;</code>
+         */
+        HEX,
+        /**
+         * the shortest of {@link #NAMED}, {@link #DECIMAL} and {@link #HEX},
+         * the name or else the decimal one if equally long. Decided by
+         * {@link Builder#build()} for each character, for a surrogate pair
+         * when it is encoded. Hex is only shorter for the code points from
+         * <code>U+F4240</code> to <code>U+FFFFF</code>, but a name often,
+         * like <code>&amp;euro;</code> for <code>&amp;#8364;</code>.
+         */
+        SHORTEST
+    }
+
+    /**
+     * The ordinals of {@link Action} in the table
+     */
+    static final int pass = 0, named = 1, decimal = 2, hex = 3,
+            shortest = 4;
+
+    static final int blockSize = 0x100;
+
+    /**
+     * {@link Action#values()} clones its array on every call
+     */
+    static final Action[] values = Action.values();
+
+    /**
+     * The five markup characters
+     */
+    static final String markup = "<>&\"'";
+
+    /**
+     * Like {@link Entities#encodeHtml(String)}
+     */
+    public static final EscapePolicy HTML = builder().escape(markup,
+            Action.NAMED).escapeNamed().build();
+
+    /**
+     * Like {@link Entities#encodeXml(String)}
+     */
+    public static final EscapePolicy XML = builder().escape(markup,
+            Action.NAMED).escape('\u00AD', Action.DECIMAL).build();
+
+    /**
+     * Like {@link Entities#encodeAsciiXml(String)}
+     */
+    public static final EscapePolicy ASCII_XML = builder()
+            .escape(markup, Action.NAMED)
+            .escape('\u0080', Character.MAX_VALUE, Action.DECIMAL).build();
+
+    /**
+     * Like {@link #ASCII_XML}, but the name of a character instead of its
+     * number if the name is shorter, for HTML in ASCII
+     */
+    public static final EscapePolicy ASCII_HTML = builder()
+            .escape(markup, Action.NAMED)
+            .escape('\u0080', Character.MAX_VALUE, Action.SHORTEST).build();
+
+    /**
+     * Only <code>"</code> and <code>&amp;</code>, for an attribute value in
+     * double quotes
+     */
+    public static final EscapePolicy ATTRIBUTE = builder().escape("\"&",
+            Action.NAMED).build();
+
+    /**
+     * Only <code>&lt;</code> and <code>&amp;</code>, for the text of an
+     * element
+     */
+    public static final EscapePolicy TEXT = builder().escape("<&",
+            Action.NAMED).build();
+
+    /**
+     * The five markup characters only, for HTML5 in UTF-8, which needs no
+     * names for the characters &gt; 127 and no visible soft hyphen
+     */
+    public static final EscapePolicy HTML5 = builder().escape(markup,
+            Action.NAMED).build();
+
+    /**
+     * The index of the block of each high byte
+     */
+    final char[] blocks;
+    final byte[] actions;
+
+    EscapePolicy(char[] blocks, byte[] actions) {
+        this.blocks = blocks;
+        this.actions = actions;
+    }
+
+    /**
+     * @return a new builder where every character passes
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a new builder with the actions of <code>policy</code>, to
+     *         change some of them
+     */
+    public static Builder builder(EscapePolicy policy) {
+        Builder builder = new Builder();
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            builder.actions[c] = (byte) policy.action((char) c);
+        }
+
+        return builder;
+    }
+
+    /**
+     * @return the action for <code>c</code>
+     */
+    public Action actionOf(char c) {
+        return values[action(c)];
+    }
+
+    int action(char c) {
+        return actions[blocks[c >> 8] + (c & 0xFF)];
+    }
+
+    /**
+     * Encodes <code>str</code> by this policy.
+     * 
+     * @return the encoded String, or <code>str</code> itself if there is
+     *         nothing to encode, <code>""</code> for <code>null</code>
+     */
+    public String encode(String str) {
+        if (str == null) {
+            return "";
+        }
+
+        int len = str.length();
+        int first = indexOfEscape(str, 0, len);
+        if (first < 0) {
+            // as is
+            return str;
+        }
+
+        // sized like Entities.capacity(CharSequence, int, int, ...)
+        StringBuilder sb = new StringBuilder(
+                len - first < Entities.minExactLength ? len + (len >> 2) + 16
+                        : (int) Math.min(first + encodedLength(str, first,
+                                len), Integer.MAX_VALUE));
+        sb.append(str, 0, first);
+        encode(str, first, len, sb);
+
+        return sb.toString();
+    }
+
+    /**
+     * Encodes <code>src</code> from <code>start</code> to <code>end</code>
+     * by this policy and appends the result to <code>dst</code>.
+     * 
+     * @param end
+     *            the index after the last character, should not split a
+     *            surrogate pair
+     */
+    public void encode(CharSequence src, int start, int end,
+            StringBuilder dst) {
+        char[] scratch = new char[Entities.maxNumericLength + 1];
+        int run = start;
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            int action = action(c);
+            if (action == pass) {
+                continue;
+            }
+
+            if (i > run) {
+                dst.append(src, run, i);
+            }
+            if (action == named && Entities.isMarkup(c)) {
+                dst.append(Entities.markupEntityOf(c));
+            }
+            else if (action == named && Entities.htmlEntityOf(c) >= 0) {
+                char[] offsets = EncodeTable.nameOffsets;
+                int e = Entities.htmlEntityOf(c);
+                dst.append(EncodeTable.names, offsets[e],
+                        offsets[e + 1] - offsets[e]);
+            }
+            else {
+                int code = c;
+                if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(src.charAt(i + 1))) {
+                    code = Character.toCodePoint(c, src.charAt(++i));
+                }
+                dst.append(scratch, 0, numericEntity(code, action, scratch));
+            }
+            run = i + 1;
+        }
+
+        if (end > run) {
+            dst.append(src, run, end);
+        }
+    }
+
+    /**
+     * Encodes by this policy like
+     * {@link Entities#encodeHtml(Reader, Writer)}.
+     * 
+     * @param reader
+     *            will be closed
+     * @param writer
+     *            will be closed
+     * @throws IOException
+     */
+    public void encode(Reader reader, Writer writer) throws IOException {
+        encode(reader, writer, true);
+    }
+
+    /**
+     * Encodes by this policy like
+     * {@link Entities#encodeHtml(Reader, Writer, boolean)}, leaving both
+     * open if <code>close</code> is <code>false</code>.
+     * 
+     * @throws IOException
+     */
+    public void encode(Reader reader, Writer writer, boolean close)
+            throws IOException {
+        try {
+            char[] buf = new char[Entities.bufferSize];
+            char[] scratch = new char[Entities.maxNumericLength + 1];
+            Entities.Output output = new Entities.Output(writer,
+                    Entities.bufferSize);
+            int pending = 0;
+            for (int len; (len = reader.read(buf, pending,
+                    buf.length - pending)) >= 0;) {
+                int end = pending + len;
+                // a high surrogate waits for the low one of the next chunk
+                pending = end > 0 && Character.isHighSurrogate(buf[end - 1])
+                        ? 1 : 0;
+                encode(buf, 0, end - pending, output, scratch);
+                if (pending > 0) {
+                    buf[0] = buf[end - 1];
+                }
+            }
+            encode(buf, 0, pending, output, scratch);
+            output.drain();
+        }
+        finally {
+            if (close) {
+                try { reader.close(); } catch (IOException e) {}
+                try { writer.close(); } catch (IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * Encodes <code>src</code> from <code>start</code> to <code>end</code>
+     * by this policy straight into <code>writer</code>, which is neither
+     * flushed nor closed, like
+     * {@link Entities#encodeHtml(CharSequence, int, int, Writer)}.
+     * 
+     * @throws IOException
+     */
+    public void encode(CharSequence src, int start, int end, Writer writer)
+            throws IOException {
+        char[] buf = new char[Math.min(end - start, Entities.bufferSize)];
+        char[] scratch = new char[Entities.maxNumericLength + 1];
+        Entities.Output output = new Entities.Output(writer, Math.min(
+                buf.length + (buf.length >> 2) + 16, Entities.bufferSize));
+        int pending = 0;
+        for (int i = start; i < end;) {
+            int n = Math.min(buf.length - pending, end - i);
+            Parallel.getChars(src, i, i + n, buf, pending);
+            i += n;
+            int e = pending + n;
+            // a high surrogate waits for the low one of the next chunk
+            pending = i < end && Character.isHighSurrogate(buf[e - 1]) ? 1 : 0;
+            encode(buf, 0, e - pending, output, scratch);
+            if (pending > 0) {
+                buf[0] = buf[e - 1];
+            }
+        }
+        output.drain();
+    }
+
+    void encode(char[] buf, int off, int end, Writer writer, char[] scratch)
+            throws IOException {
+        int run = off;
+        for (int i = off; i < end; i++) {
+            char c = buf[i];
+            int action = action(c);
+            if (action == pass) {
+                continue;
+            }
+
+            if (i > run) {
+                writer.write(buf, run, i - run);
+            }
+            if (action == named && Entities.isMarkup(c)) {
+                writer.write(Entities.markupEntityOf(c));
+            }
+            else if (action == named && Entities.htmlEntityOf(c) >= 0) {
+                char[] offsets = EncodeTable.nameOffsets;
+                int e = Entities.htmlEntityOf(c);
+                writer.write(EncodeTable.names, offsets[e],
+                        offsets[e + 1] - offsets[e]);
+            }
+            else {
+                int code = c;
+                if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(buf[i + 1])) {
+                    code = Character.toCodePoint(c, buf[++i]);
+                }
+                writer.write(scratch, 0, numericEntity(code, action, scratch));
+            }
+            run = i + 1;
+        }
+
+        if (end > run) {
+            writer.write(buf, run, end - run);
+        }
+    }
+
+    /**
+     * The length of <code>str</code> encoded by {@link #encode(String)},
+     * computed without encoding it, like
+     * {@link Entities#encodedHtmlLength(CharSequence)}.
+     * 
+     * @return the number of characters, <code>0</code> for <code>null</code>
+     */
+    public long encodedLength(CharSequence str) {
+        return str == null ? 0 : encodedLength(str, 0, str.length());
+    }
+
+    long encodedLength(CharSequence str, int off, int end) {
+        char[] scratch = new char[Entities.maxNumericLength + 1];
+        long len = end - off;
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            int action = action(c);
+            if (action == pass) {
+                continue;
+            }
+
+            if (action == named && Entities.isMarkup(c)) {
+                len += Entities.markupEntityOf(c).length() - 1;
+            }
+            else if (action == named && Entities.htmlEntityOf(c) >= 0) {
+                char[] offsets = EncodeTable.nameOffsets;
+                int e = Entities.htmlEntityOf(c);
+                len += offsets[e + 1] - offsets[e] - 1;
+            }
+            else {
+                int code = c;
+                if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    code = Character.toCodePoint(c, str.charAt(++i));
+                    len--;
+                }
+                len += numericEntity(code, action, scratch) - 1;
+            }
+        }
+
+        return len;
+    }
+
+    /**
+     * @return the index of the first character from <code>off</code> to
+     *         <code>end</code> which is not passed or <code>-1</code>
+     */
+    int indexOfEscape(CharSequence str, int off, int end) {
+        for (int i = off; i < end; i++) {
+            if (action(str.charAt(i)) != pass) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Writes <code>&amp;#x<i>hex</i>;</code> for {@link Action#HEX} and for
+     * {@link Action#SHORTEST} if shorter, <code>&amp;#<i>decimal</i>;</code>
+     * otherwise.
+     * 
+     * @return the length
+     */
+    static int numericEntity(int code, int action, char[] dst) {
+        int len = hexLength(code);
+        if (action != hex && (action != shortest
+                || len >= Entities.numericLength(code))) {
+            return Entities.numericEntity(code, dst);
+        }
+
+        dst[0] = Entities.amp;
+        dst[1] = '#';
+        dst[2] = 'x';
+        dst[len - 1] = Entities.semicolon;
+        for (int i = len - 2; i > 2; i--, code >>>= 4) {
+            dst[i] = hexDigits.charAt(code & 15);
+        }
+
+        return len;
+    }
+
+    static final String hexDigits = "0123456789ABCDEF";
+
+    /**
+     * @return the length of <code>&amp;#x<i>hex</i>;</code>
+     */
+    static int hexLength(int code) {
+        // &#x0;
+        int len = 5;
+        for (int n = code; n >= 16; n >>>= 4) {
+            len++;
+        }
+
+        return len;
+    }
+
+    /**
+     * @return the length of the name of <code>c</code>,
+     *         {@link Integer#MAX_VALUE} if it has none
+     */
+    static int nameLength(char c) {
+        if (c < 128) {
+            return Entities.isMarkup(c)
+                    ? Entities.markupEntityOf(c).length() : Integer.MAX_VALUE;
+        }
+        int e = Entities.htmlEntityOf(c);
+        if (e < 0) {
+            return Integer.MAX_VALUE;
+        }
+
+        return EncodeTable.nameOffsets[e + 1] - EncodeTable.nameOffsets[e];
+    }
+
+    /**
+     * @return the action of {@link Action#SHORTEST} for <code>c</code>
+     */
+    static int shortestOf(char c) {
+        int decimal = Entities.numericLength(c);
+        int hex = hexLength(c);
+        if (nameLength(c) <= Math.min(decimal, hex)) {
+            return named;
+        }
+
+        return hex < decimal ? EscapePolicy.hex : EscapePolicy.decimal;
+    }
+
+    /**
+     * Collects the actions for all characters, the last one for a
+     * character wins. Not thread-safe.
+     */
+    public static final class Builder {
+
+        final byte[] actions = new byte[Character.MAX_VALUE + 1];
+
+        Builder() {
+        }
+
+        /**
+         * @return this builder
+         */
+        public Builder escape(char c, Action action) {
+            actions[c] = (byte) action.ordinal();
+
+            return this;
+        }
+
+        /**
+         * @param from
+         *            the first character
+         * @param to
+         *            the last character, inclusive
+         * @return this builder
+         */
+        public Builder escape(char from, char to, Action action) {
+            for (int c = from; c <= to; c++) {
+                actions[c] = (byte) action.ordinal();
+            }
+
+            return this;
+        }
+
+        /**
+         * @return this builder
+         */
+        public Builder escape(CharSequence chars, Action action) {
+            for (int i = 0; i < chars.length(); i++) {
+                actions[chars.charAt(i)] = (byte) action.ordinal();
+            }
+
+            return this;
+        }
+
+        /**
+         * Escapes every character &gt; 127 with an XHTML 1.0 name by its
+         * name, like {@link Entities#encodeHtml(String)}.
+         * 
+         * @return this builder
+         */
+        public Builder escapeNamed() {
+            for (char c : EncodeTable.codes) {
+                actions[c] = named;
+            }
+
+            return this;
+        }
+
+        /**
+         * @return a new policy, equal blocks of the table are stored once
+         * @throws IllegalStateException
+         *             if some surrogates pass and others are escaped
+         */
+        public EscapePolicy build() {
+            byte[] actions = this.actions.clone();
+            boolean escaped = actions[Character.MIN_SURROGATE] != pass;
+            for (int c = Character.MIN_SURROGATE; c <= Character.MAX_SURROGATE;
+                    c++) {
+                if ((actions[c] != pass) != escaped) {
+                    throw new IllegalStateException("surrogate U+"
+                            + Integer.toHexString(c).toUpperCase()
+                            + (escaped ? " passes" : " is escaped")
+                            + ", but U+D800 does not");
+                }
+            }
+            for (int c = 0; c < actions.length; c++) {
+                // a surrogate pair is decided when its code point is known
+                if (actions[c] == shortest && (c < Character.MIN_SURROGATE
+                        || c > Character.MAX_SURROGATE)) {
+                    actions[c] = (byte) shortestOf((char) c);
+                }
+            }
+
+            Map<String, Character> offsets = new HashMap<String, Character>();
+            char[] blocks = new char[blockSize];
+            byte[] unique = new byte[actions.length];
+            char[] key = new char[blockSize];
+            int n = 0;
+            for (int b = 0; b < blockSize; b++) {
+                for (int k = 0; k < blockSize; k++) {
+                    key[k] = (char) actions[b * blockSize + k];
+                }
+                String block = new String(key);
+                Character offset = offsets.get(block);
+                if (offset == null) {
+                    offset = Character.valueOf((char) n);
+                    offsets.put(block, offset);
+                    System.arraycopy(actions, b * blockSize, unique, n,
+                            blockSize);
+                    n += blockSize;
+                }
+                blocks[b] = offset.charValue();
+            }
+
+            byte[] compact = new byte[n];
+            System.arraycopy(unique, 0, compact, 0, n);
+
+            return new EscapePolicy(blocks, compact);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Encodes and decodes a large text in chunks on an {@link Executor}.
+ * <p>
+ * A chunk for decoding never starts within {@link #window} characters after
+ * an <code>&amp;</code>, where a reference might still be pending, so each
+ * chunk decodes exactly like in one piece. A chunk for encoding never starts
+ * between the surrogates of a pair. The calling thread runs every chunk not
+ * yet started by the {@link Executor} itself, so it is never blocked by a
+ * busy, single-threaded or shut down {@link Executor}.
+ * <p>
+ * A batch of {@link String}s is split into chunks of consecutive
+ * {@link String}s of about the same total length, a {@link String} itself
+ * is never split.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+final class Parallel {
+
+    /**
+     * A text shorter than twice this length is done in the calling thread,
+     * non-final for the tests
+     */
+    static int minChunkLength = 0x10000;
+
+    /**
+     * Some more chunks than threads, so an unlucky slow one does not delay
+     * the end too much
+     */
+    static final int chunksPerProcessor = 4;
+
+    /**
+     * The characters after an <code>&amp;</code> up to which a reference is
+     * decided, see {@link Entities.Decoder}
+     */
+    static final int window = Entities.maxReferenceLength + 1;
+
+    private Parallel() {
+        // nothing to see here
+    }
+
+    static String encode(final CharSequence str, final boolean xml,
+            final boolean ascii, Executor executor) {
+        if (str == null) {
+            return "";
+        }
+
+        int len = str.length();
+        int n = chunks(len);
+        if (n < 2) {
+            // str itself if there is nothing to encode
+            return Entities.encode(str.toString(), xml, ascii);
+        }
+
+        final int[] bounds = new int[n + 1];
+        bounds[n] = len;
+        for (int k = 1; k < n; k++) {
+            int p = Math.max(bounds[k - 1], (int) ((long) len * k / n));
+            if (p > 0 && p < len && Character.isHighSurrogate(str.charAt(p - 1))
+                    && Character.isLowSurrogate(str.charAt(p))) {
+                p++;
+            }
+            bounds[k] = p;
+        }
+
+        final StringBuilder[] parts = new StringBuilder[n];
+        FutureTask<?>[] tasks = new FutureTask<?>[n];
+        for (int k = 0; k < n; k++) {
+            final int chunk = k;
+            tasks[k] = new FutureTask<Object>(new Runnable() {
+                public void run() {
+                    int start = bounds[chunk], end = bounds[chunk + 1];
+                    int len = end - start;
+                    StringBuilder sb = new StringBuilder(len + (len >> 2) + 16);
+                    Entities.append(str, start, end, sb, xml, ascii);
+                    parts[chunk] = sb;
+                }
+            }, null);
+        }
+        run(tasks, executor);
+
+        long total = 0;
+        for (StringBuilder part : parts) {
+            total += part.length();
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("encoded text of " + total
+                    + " characters exceeds the array limit");
+        }
+        char[] chars = new char[(int) total];
+        int off = 0;
+        for (StringBuilder part : parts) {
+            part.getChars(0, part.length(), chars, off);
+            off += part.length();
+        }
+
+        return new String(chars);
+    }
+
+    static String decode(final CharSequence encoded, Executor executor) {
+        int len = encoded.length();
+        int n = chunks(len);
+        if (n < 2) {
+            return Entities.decode(encoded.toString());
+        }
+
+        final int[] bounds = new int[n + 1];
+        bounds[n] = len;
+        for (int k = 1; k < n; k++) {
+            bounds[k] = boundary(encoded,
+                    Math.max(bounds[k - 1], (int) ((long) len * k / n)));
+        }
+
+        // each chunk is decoded in place, the decoded is never longer
+        final char[] chars = new char[len];
+        final int[] lengths = new int[n];
+        FutureTask<?>[] tasks = new FutureTask<?>[n];
+        for (int k = 0; k < n; k++) {
+            final int chunk = k;
+            tasks[k] = new FutureTask<Object>(new Runnable() {
+                public void run() {
+                    int start = bounds[chunk], end = bounds[chunk + 1];
+                    getChars(encoded, start, end, chars, start);
+                    lengths[chunk] = Entities.decode(chars, start,
+                            end - start, chars, start);
+                }
+            }, null);
+        }
+        run(tasks, executor);
+
+        int d = lengths[0];
+        for (int k = 1; k < n; k++) {
+            System.arraycopy(chars, bounds[k], chars, d, lengths[k]);
+            d += lengths[k];
+        }
+
+        return new String(chars, 0, d);
+    }
+
+    static void encode(final String[] in, final String[] out,
+            final boolean xml, final boolean ascii, Executor executor) {
+        final int[] bounds = bounds(in);
+        int n = bounds.length - 1;
+        if (n < 2) {
+            Entities.encode(in, 0, in.length, out, xml, ascii);
+            return;
+        }
+
+        FutureTask<?>[] tasks = new FutureTask<?>[n];
+        for (int k = 0; k < n; k++) {
+            final int chunk = k;
+            tasks[k] = new FutureTask<Object>(new Runnable() {
+                public void run() {
+                    Entities.encode(in, bounds[chunk], bounds[chunk + 1], out,
+                            xml, ascii);
+                }
+            }, null);
+        }
+        run(tasks, executor);
+    }
+
+    static void decode(final String[] in, final String[] out,
+            Executor executor) {
+        final int[] bounds = bounds(in);
+        int n = bounds.length - 1;
+        if (n < 2) {
+            Entities.decode(in, 0, in.length, out);
+            return;
+        }
+
+        FutureTask<?>[] tasks = new FutureTask<?>[n];
+        for (int k = 0; k < n; k++) {
+            final int chunk = k;
+            tasks[k] = new FutureTask<Object>(new Runnable() {
+                public void run() {
+                    Entities.decode(in, bounds[chunk], bounds[chunk + 1], out);
+                }
+            }, null);
+        }
+        run(tasks, executor);
+    }
+
+    /**
+     * @return the index of the first {@link String} of each chunk, plus
+     *         <code>in.length</code> at the end
+     */
+    static int[] bounds(String[] in) {
+        long total = 0;
+        for (String str : in) {
+            if (str != null) {
+                total += str.length();
+            }
+        }
+        int n = chunks((int) Math.min(total, Integer.MAX_VALUE));
+        if (n < 2) {
+            return new int[] { 0, in.length };
+        }
+
+        int[] bounds = new int[n + 1];
+        bounds[n] = in.length;
+        long sum = 0;
+        for (int i = 0, k = 1; k < n; i++) {
+            if (in[i] != null) {
+                sum += in[i].length();
+            }
+            // the next chunk starts after the String which reaches k/n
+            while (k < n && sum >= total * k / n) {
+                bounds[k++] = i + 1;
+            }
+        }
+
+        return bounds;
+    }
+
+    /**
+     * @return the number of chunks for a text of length <code>len</code>
+     */
+    static int chunks(int len) {
+        return Math.min(len / minChunkLength,
+                chunksPerProcessor * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the first index from <code>p</code> on without an
+     *         <code>&amp;</code> in the {@link #window} characters before
+     */
+    static int boundary(CharSequence str, int p) {
+        int len = str.length();
+        for (int i = p - 1; i >= 0 && i >= p - window; i--) {
+            if (str.charAt(i) == Entities.amp) {
+                p = i + 1 + window;
+                if (p >= len) {
+                    return len;
+                }
+                // again before the new p
+                i = p;
+            }
+        }
+
+        return p;
+    }
+
+    static void getChars(CharSequence str, int start, int end, char[] dst,
+            int dstOff) {
+        if (str instanceof String) {
+            ((String) str).getChars(start, end, dst, dstOff);
+        }
+        else if (str instanceof StringBuilder) {
+            ((StringBuilder) str).getChars(start, end, dst, dstOff);
+        }
+        else {
+            for (int i = start; i < end; i++) {
+                dst[dstOff++] = str.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * Runs all <code>tasks</code>, and returns when all are done.
+     */
+    static void run(FutureTask<?>[] tasks, Executor executor) {
+        for (int k = 1; k < tasks.length; k++) {
+            try {
+                executor.execute(tasks[k]);
+            }
+            catch (RejectedExecutionException e) {
+                // run below
+            }
+        }
+        // a task is run only once, by whoever comes first
+        for (FutureTask<?> task : tasks) {
+            task.run();
+        }
+
+        boolean interrupted = false;
+        for (FutureTask<?> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    // the chunks are written to shared arrays, so wait
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+/**
+ * Scans a <code>char[]</code> for the next character to encode or the next
+ * <code>&amp;</code> to decode, the hot loops of
+ * {@link Entities#encode(char[], int, int, java.io.Writer, boolean, boolean, char[])}
+ * and {@link Entities.Decoder}.
+ * <p>
+ * This is the portable version for Java 6 and Android, one character at a
+ * time. The multi-release JAR contains a version for Java 17 and later in
+ * <code>META-INF/versions/17</code>, which compares a whole vector of
+ * characters at once if the JVM was started with
+ * <code>--add-modules jdk.incubator.vector</code>.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+final class Scan {
+
+    private Scan() {
+        // nothing to see here
+    }
+
+    /**
+     * @return the index of the first character from <code>i</code> to
+     *         <code>end</code> which has to be encoded or <code>end</code>
+     */
+    static int indexOfEntity(char[] buf, int i, int end, boolean xml,
+            boolean ascii) {
+        for (; i < end; i++) {
+            char c = buf[i];
+            if (c < 128 ? Entities.isMarkup(c)
+                    : Entities.isEntity(c, xml, ascii)) {
+                return i;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * @return the index of the first <code>&amp;</code> from <code>i</code>
+     *         to <code>end</code> or <code>end</code>
+     */
+    static int indexOfAmp(char[] buf, int i, int end) {
+        while (i < end && buf[i] != Entities.amp) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return <code>true</code> if {@link #indexOfEntity(char[], int, int,
+     *         boolean, boolean)} compares vectors
+     */
+    static boolean isVectorized() {
+        return false;
+    }
+}
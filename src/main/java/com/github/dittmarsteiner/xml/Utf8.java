@@ -0,0 +1,610 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.github.dittmarsteiner.xml.Entities.Decoder;
+
+/**
+ * Encodes and decodes UTF-8 bytes directly. All markup characters are ASCII
+ * and can never be part of a multi-byte sequence, so only the code points
+ * of HTML and ASCII XML encoding are decoded from their bytes.
+ * <p>
+ * A call never splits a sequence or a reference: it stops before the first
+ * one which does not fit into <code>dst</code>, or which is incomplete at
+ * the end of <code>src</code> while more input may follow. So there is no
+ * state between two calls and the caller simply continues with the
+ * remaining bytes.
+ * <p>
+ * Malformed sequences are encoded as <code>U+FFFD</code> exactly like
+ * {@link java.io.InputStreamReader} would do. Decoding copies all bytes
+ * outside of references as they are.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+final class Utf8 {
+
+    /**
+     * Unchanged bytes of a file from this length on are transferred by the
+     * file system, shorter ones are copied
+     */
+    static final int minTransferLength = 0x4000;
+
+    /**
+     * The bytes of a file copied for {@link #transcode(byte[], int, byte[],
+     * int, boolean)} at once, which copies unchanged runs fast enough too
+     */
+    static final int fileChunkSize = Entities.bufferSize;
+
+    static final long ones = 0x0101010101010101L;
+    static final long highBits = 0x8080808080808080L;
+    static final long lowBits = 0x7F7F7F7F7F7F7F7FL;
+
+    final boolean xml, ascii;
+    /**
+     * <code>null</code> for encoding
+     */
+    final Decoder decoder;
+    final char[] scratch = new char[Entities.maxReferenceLength + 1];
+    /**
+     * The positions in <code>src</code> and <code>dst</code>
+     */
+    int s, d;
+    /**
+     * The size of the mapped windows of a file
+     */
+    int mapSize = 1 << 26;
+
+    Utf8(boolean xml, boolean ascii) {
+        this.xml = xml;
+        this.ascii = ascii;
+        this.decoder = null;
+    }
+
+    Utf8() {
+        this.xml = false;
+        this.ascii = false;
+        this.decoder = new Decoder();
+    }
+
+    /**
+     * Transcodes the remaining bytes of <code>src</code>, which is the
+     * complete input, into <code>dst</code> as far as it has got room.
+     */
+    void transcode(ByteBuffer src, ByteBuffer dst) {
+        if (src.hasArray() && dst.hasArray()) {
+            int srcOff = src.arrayOffset();
+            int dstOff = dst.arrayOffset();
+            s = srcOff + src.position();
+            d = dstOff + dst.position();
+            transcode(src.array(), srcOff + src.limit(), dst.array(),
+                    dstOff + dst.limit(), true);
+            src.position(s - srcOff);
+            dst.position(d - dstOff);
+
+            return;
+        }
+
+        // direct or read-only buffers chunk by chunk
+        byte[] in = new byte[Math.min(src.remaining(), Entities.bufferSize)];
+        byte[] out = new byte[Entities.bufferSize];
+        while (src.hasRemaining() && dst.hasRemaining()) {
+            int pos = src.position();
+            int n = Math.min(src.remaining(), in.length);
+            boolean endOfInput = n == src.remaining();
+            src.get(in, 0, n);
+            s = 0;
+            d = 0;
+            transcode(in, n, out, Math.min(dst.remaining(), out.length),
+                    endOfInput);
+            src.position(pos + s);
+            dst.put(out, 0, d);
+            if (s == 0) {
+                break;
+            }
+        }
+    }
+
+    void transcode(InputStream input, OutputStream output) throws IOException {
+        try {
+            byte[] in = new byte[Entities.bufferSize];
+            byte[] out = new byte[Entities.bufferSize];
+            int n = 0;
+            boolean endOfInput = false;
+            do {
+                int len = input.read(in, n, in.length - n);
+                if (len < 0) {
+                    endOfInput = true;
+                }
+                else {
+                    n += len;
+                }
+                s = 0;
+                d = 0;
+                transcode(in, n, out, out.length, endOfInput);
+                output.write(out, 0, d);
+                // the rest waits for more input or room
+                System.arraycopy(in, s, in, 0, n - s);
+                n -= s;
+            }
+            while (!endOfInput || n > 0);
+        }
+        finally {
+            try { input.close(); } catch (IOException e) {}
+            try { output.close(); } catch (IOException e) {}
+        }
+    }
+
+    /**
+     * Maps <code>in</code> window by window, and scans for the next byte
+     * which may change eight bytes at once. All unchanged bytes up to there
+     * are transferred or copied as they are, the rest is transcoded in small
+     * chunks.
+     */
+    void transcode(File in, File out) throws IOException {
+        FileInputStream input = new FileInputStream(in);
+        try {
+            FileOutputStream output = new FileOutputStream(out);
+            try {
+                transcode(input.getChannel(), output.getChannel());
+            }
+            finally {
+                try { output.close(); } catch (IOException e) {}
+            }
+        }
+        finally {
+            try { input.close(); } catch (IOException e) {}
+        }
+    }
+
+    void transcode(FileChannel input, FileChannel output) throws IOException {
+        byte[] chunk = new byte[fileChunkSize];
+        ByteBuffer out = ByteBuffer.allocate(4 * fileChunkSize);
+        long size = input.size();
+        MappedByteBuffer map = null;
+        long mapStart = 0;
+        int mapLength = 0;
+        for (long pos = 0; pos < size;) {
+            int i = (int) (pos - mapStart);
+            if (map == null || mapStart + mapLength < size
+                    && mapLength - i < fileChunkSize) {
+                mapStart = pos;
+                mapLength = (int) Math.min(size - pos, mapSize);
+                map = input.map(MapMode.READ_ONLY, mapStart, mapLength);
+                i = 0;
+            }
+
+            int k = indexOfEntity(map, i, mapLength);
+            if (k - i >= minTransferLength) {
+                write(out, output);
+                long p = pos;
+                for (long n; p < pos + k - i; p += n) {
+                    n = input.transferTo(p, pos + k - i - p, output);
+                    if (n <= 0) {
+                        // no progress, the rest is copied below
+                        break;
+                    }
+                }
+                i += (int) (p - pos);
+                pos = p;
+                if (i == k) {
+                    continue;
+                }
+            }
+            while (i < k) {
+                int n = Math.min(k - i, out.remaining());
+                map.position(i);
+                map.get(out.array(), out.position(), n);
+                out.position(out.position() + n);
+                i += n;
+                if (!out.hasRemaining()) {
+                    write(out, output);
+                }
+            }
+            pos = mapStart + k;
+            if (k == mapLength) {
+                continue;
+            }
+
+            if (out.remaining() < chunk.length) {
+                // room for a whole chunk, mostly
+                write(out, output);
+            }
+            int n = Math.min(mapLength - k, chunk.length);
+            map.position(k);
+            map.get(chunk, 0, n);
+            s = 0;
+            d = out.position();
+            transcode(chunk, n, out.array(), out.limit(),
+                    mapStart + k + n == size);
+            out.position(d);
+            pos += s;
+            if (s == 0) {
+                // out is full
+                write(out, output);
+            }
+        }
+        write(out, output);
+    }
+
+    static void write(ByteBuffer buf, FileChannel channel) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Compares eight bytes at once: every byte &gt; 127 and every markup
+     * character for encoding, only the <code>&amp;</code> for decoding.
+     * 
+     * @return the index of the first byte from <code>i</code> to
+     *         <code>end</code> which may change or <code>end</code>
+     */
+    int indexOfEntity(ByteBuffer buf, int i, int end) {
+        // big-endian by default, the first byte is the most significant one
+        for (; i + 8 <= end; i += 8) {
+            long x = buf.getLong(i);
+            long found = equal(x, Entities.amp);
+            if (decoder == null) {
+                found |= x & highBits | equal(x, Entities.lt)
+                        | equal(x, Entities.gt) | equal(x, Entities.quot)
+                        | equal(x, Entities.apos);
+            }
+            if (found != 0) {
+                return i + (Long.numberOfLeadingZeros(found) >>> 3);
+            }
+        }
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (decoder == null ? b < 0 || Entities.isMarkup((char) b)
+                    : b == Entities.amp) {
+                return i;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * @return the high bit of every byte of <code>x</code> which equals
+     *         <code>b</code>, exactly without carries between the bytes
+     */
+    static long equal(long x, int b) {
+        long v = x ^ ones * b;
+
+        return ~((v & lowBits) + lowBits | v | lowBits);
+    }
+
+    void transcode(byte[] src, int end, byte[] dst, int dstEnd,
+            boolean endOfInput) {
+        if (decoder == null) {
+            encode(src, end, dst, dstEnd, endOfInput);
+        }
+        else {
+            decode(src, end, dst, dstEnd, endOfInput);
+        }
+    }
+
+    /**
+     * Copies all bytes which need no escaping in runs and writes the
+     * entities one by one.
+     */
+    void encode(byte[] src, int end, byte[] dst, int dstEnd,
+            boolean endOfInput) {
+        int i = s;
+        int o = d;
+        int start = i;
+        while (i < end) {
+            int b = src[i];
+            int n = 1;
+            if (b >= 0) {
+                if (!Entities.isMarkup((char) b)) {
+                    i++;
+                    continue;
+                }
+            }
+            else {
+                n = sequenceLength(src, i, end, endOfInput);
+                if (n == 0) {
+                    // incomplete, waits for more input
+                    break;
+                }
+                if (n > 0 && !isEntity(src, i, n)) {
+                    i += n;
+                    continue;
+                }
+            }
+
+            // the run so far as is, at least what fits
+            int run = i - start;
+            if (run > dstEnd - o) {
+                i = start + dstEnd - o;
+                while (i > start && (src[i] & 0xC0) == 0x80) {
+                    i--;
+                }
+                System.arraycopy(src, start, dst, o, i - start);
+                o += i - start;
+                s = i;
+                d = o;
+
+                return;
+            }
+            System.arraycopy(src, start, dst, o, run);
+            o += run;
+
+            int len;
+            if (b >= 0) {
+                String entity = Entities.markupEntityOf((char) b);
+                len = entity.length();
+                entity.getChars(0, len, scratch, 0);
+            }
+            else if (n < 0) {
+                // malformed
+                n = -n;
+                scratch[0] = 0xFFFD;
+                len = ascii ? Entities.numericEntity(0xFFFD, scratch) : 1;
+            }
+            else if (!ascii && !xml) {
+                char[] offsets = EncodeTable.nameOffsets;
+                int e = Entities.htmlEntityOf((char) codePoint(src, i, n));
+                len = offsets[e + 1] - offsets[e];
+                System.arraycopy(EncodeTable.names, offsets[e], scratch, 0, len);
+            }
+            else {
+                len = Entities.numericEntity(codePoint(src, i, n), scratch);
+            }
+            if (length(scratch, len) > dstEnd - o) {
+                s = i;
+                d = o;
+
+                return;
+            }
+            o = put(scratch, len, dst, o);
+            i += n;
+            start = i;
+        }
+
+        int run = Math.min(i - start, dstEnd - o);
+        i = start + run;
+        while (i > start && i < end && (src[i] & 0xC0) == 0x80) {
+            i--;
+        }
+        System.arraycopy(src, start, dst, o, i - start);
+        s = i;
+        d = o + i - start;
+    }
+
+    /**
+     * @return <code>true</code> if the valid sequence of <code>n</code>
+     *         bytes has to be encoded
+     */
+    boolean isEntity(byte[] src, int i, int n) {
+        if (ascii) {
+            return true;
+        }
+        if (xml) {
+            // the soft hyphen 0x00AD
+            return n == 2 && src[i] == (byte) 0xC2 && src[i + 1] == (byte) 0xAD;
+        }
+
+        return n < 4 && Entities.htmlEntityOf((char) codePoint(src, i, n)) >= 0;
+    }
+
+    /**
+     * Copies all bytes up to the next <code>&amp;</code> in runs and feeds a
+     * reference byte by byte into the {@link Decoder}.
+     */
+    void decode(byte[] src, int end, byte[] dst, int dstEnd,
+            boolean endOfInput) {
+        Decoder decoder = this.decoder;
+        decoder.len = 0;
+        int i = s;
+        int o = d;
+        // where the pending reference starts
+        int ref = i;
+        while (i < end) {
+            if (decoder.len == 0) {
+                int j = i;
+                int max = Math.min(end, i + dstEnd - o);
+                while (j < max && src[j] != Entities.amp) {
+                    j++;
+                }
+                System.arraycopy(src, i, dst, o, j - i);
+                o += j - i;
+                i = j;
+                if (i == max) {
+                    // at the end or dst is full
+                    break;
+                }
+                decoder.begin();
+                ref = i++;
+                continue;
+            }
+
+            int b = src[i];
+            int len;
+            if (b < 0) {
+                // not part of a reference, copied by the next run
+                len = decoder.end(scratch, 0, 0x80);
+            }
+            else {
+                len = decoder.decode((char) b, scratch, 0);
+            }
+            if (length(scratch, len) > dstEnd - o) {
+                // again with more room
+                i = ref;
+                decoder.len = 0;
+                break;
+            }
+            o = put(scratch, len, dst, o);
+            if (b >= 0) {
+                if (b == Entities.amp) {
+                    ref = i;
+                }
+                i++;
+            }
+        }
+
+        if (decoder.len > 0) {
+            int len = -1;
+            if (endOfInput) {
+                len = decoder.finish(scratch, 0);
+            }
+            if (len >= 0 && length(scratch, len) <= dstEnd - o) {
+                o = put(scratch, len, dst, o);
+            }
+            else {
+                // again with more input or room
+                i = ref;
+                decoder.len = 0;
+            }
+        }
+        s = i;
+        d = o;
+    }
+
+    /**
+     * @return the length of the valid sequence at <code>i</code>, the
+     *         negative number of bytes to replace if malformed, or
+     *         <code>0</code> if incomplete
+     */
+    static int sequenceLength(byte[] src, int i, int end, boolean endOfInput) {
+        int b = src[i] & 0xFF;
+        int n;
+        // the range of the second byte
+        int lo = 0x80, hi = 0xBF;
+        if (b < 0xC2) {
+            return -1;
+        }
+        else if (b < 0xE0) {
+            n = 2;
+        }
+        else if (b < 0xF0) {
+            n = 3;
+            if (b == 0xE0) {
+                lo = 0xA0;
+            }
+        }
+        else if (b < 0xF5) {
+            n = 4;
+            if (b == 0xF0) {
+                lo = 0x90;
+            }
+            else if (b == 0xF4) {
+                hi = 0x8F;
+            }
+        }
+        else {
+            return -1;
+        }
+
+        for (int k = 1; k < n; k++) {
+            if (i + k == end) {
+                return endOfInput ? -k : 0;
+            }
+            int c = src[i + k] & 0xFF;
+            if (c < lo || c > hi) {
+                return -k;
+            }
+            lo = 0x80;
+            hi = 0xBF;
+        }
+        if (b == 0xED && (src[i + 1] & 0xFF) >= 0xA0) {
+            // a surrogate as a whole, like the JDK does
+            return -3;
+        }
+
+        return n;
+    }
+
+    static int codePoint(byte[] src, int i, int n) {
+        int code = src[i] & (0xFF >> (n + 1));
+        for (int k = 1; k < n; k++) {
+            code = code << 6 | src[i + k] & 0x3F;
+        }
+
+        return code;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes of <code>len</code> characters
+     */
+    static int length(char[] chars, int len) {
+        int n = len;
+        for (int k = 0; k < len; k++) {
+            char c = chars[k];
+            if (c >= 0x80) {
+                // a surrogate pair is 4 bytes, a lone one 3 for U+FFFD
+                n += c < 0x800 ? 1 : Character.isLowSurrogate(c)
+                        && k > 0 && Character.isHighSurrogate(chars[k - 1])
+                        ? 0 : 2;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Writes <code>len</code> characters as UTF-8, a lone surrogate as
+     * <code>U+FFFD</code>.
+     */
+    static int put(char[] chars, int len, byte[] dst, int o) {
+        for (int k = 0; k < len; k++) {
+            int c = chars[k];
+            if (c < 0x80) {
+                dst[o++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                dst[o++] = (byte) (0xC0 | c >> 6);
+                dst[o++] = (byte) (0x80 | c & 0x3F);
+            }
+            else if (Character.isHighSurrogate((char) c) && k + 1 < len
+                    && Character.isLowSurrogate(chars[k + 1])) {
+                c = Character.toCodePoint((char) c, chars[++k]);
+                dst[o++] = (byte) (0xF0 | c >> 18);
+                dst[o++] = (byte) (0x80 | c >> 12 & 0x3F);
+                dst[o++] = (byte) (0x80 | c >> 6 & 0x3F);
+                dst[o++] = (byte) (0x80 | c & 0x3F);
+            }
+            else {
+                if (c >= Character.MIN_SURROGATE
+                        && c <= Character.MAX_SURROGATE) {
+                    c = 0xFFFD;
+                }
+                dst[o++] = (byte) (0xE0 | c >> 12);
+                dst[o++] = (byte) (0x80 | c >> 6 & 0x3F);
+                dst[o++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+
+        return o;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+/**
+ * The Java 17 version of <code>Scan</code> in the multi-release JAR, see
+ * the portable version in <code>src/main/java</code>. It delegates to
+ * {@link VectorScan} if the incubating Vector API is available, i.e. the
+ * JVM was started with <code>--add-modules jdk.incubator.vector</code>,
+ * and scans one character at a time otherwise.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+final class Scan {
+
+    /**
+     * {@link VectorScan} is loaded only if this is <code>true</code>, because
+     * it cannot be linked without the module
+     */
+    static final boolean vectors = vectors();
+
+    /**
+     * The characters checked one by one before a vector is loaded, so dense
+     * text with an entity every few characters is not slower than without
+     * vectors
+     */
+    static final int lanes = vectors ? VectorScan.species.length() : 0;
+
+    private Scan() {
+        // nothing to see here
+    }
+
+    private static boolean vectors() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorScan.species.length() >= 4;
+        }
+        catch (LinkageError e) {
+            // an incubating API may change
+            return false;
+        }
+    }
+
+    /**
+     * @return the index of the first character from <code>i</code> to
+     *         <code>end</code> which has to be encoded or <code>end</code>
+     */
+    static int indexOfEntity(char[] buf, int i, int end, boolean xml,
+            boolean ascii) {
+        int stop = vectors ? Math.min(i + lanes, end) : end;
+        for (;;) {
+            for (; i < stop; i++) {
+                char c = buf[i];
+                if (c < 128 ? Entities.isMarkup(c)
+                        : Entities.isEntity(c, xml, ascii)) {
+                    return i;
+                }
+            }
+            if (stop == end) {
+                return end;
+            }
+            i = VectorScan.indexOfEntity(buf, i, end, xml, ascii);
+            stop = end;
+        }
+    }
+
+    /**
+     * @return the index of the first <code>&amp;</code> from <code>i</code>
+     *         to <code>end</code> or <code>end</code>
+     */
+    static int indexOfAmp(char[] buf, int i, int end) {
+        int stop = vectors ? Math.min(i + lanes, end) : end;
+        for (;;) {
+            for (; i < stop; i++) {
+                if (buf[i] == Entities.amp) {
+                    return i;
+                }
+            }
+            if (stop == end) {
+                return end;
+            }
+            i = VectorScan.indexOfAmp(buf, i, end);
+            stop = end;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if {@link #indexOfEntity(char[], int, int,
+     *         boolean, boolean)} compares vectors
+     */
+    static boolean isVectorized() {
+        return vectors;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import static jdk.incubator.vector.VectorOperators.UNSIGNED_GE;
+import static jdk.incubator.vector.VectorOperators.UNSIGNED_LE;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Compares as many characters at once as the CPU has 16 bit lanes, e.g. 16
+ * with AVX2: the five markup characters for encoding plus the range of
+ * characters &gt; 127 which may have to be encoded, only the
+ * <code>&amp;</code> for decoding. Only loaded by {@link Scan} if the
+ * module <code>jdk.incubator.vector</code> is present.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+final class VectorScan {
+
+    static final VectorSpecies<Short> species = ShortVector.SPECIES_PREFERRED;
+
+    private VectorScan() {
+        // nothing to see here
+    }
+
+    /**
+     * A character in the range of the HTML entities is checked one by one,
+     * since most of them in the range, like cyrillic letters, have none.
+     * 
+     * @return the index of the first character from <code>i</code> which has
+     *         to be encoded or of the last characters before
+     *         <code>end</code> which are less than a vector
+     */
+    static int indexOfEntity(char[] buf, int i, int end, boolean xml,
+            boolean ascii) {
+        short lo = (short) (ascii ? 0x80 : xml ? 0x00AD
+                : Entities.latin1Offset);
+        short hi = (short) (ascii ? 0xFFFF : xml ? 0x00AD
+                : Math.min(EncodeTable.bits.length << 4, 0x10000) - 1);
+        boolean exact = ascii || xml;
+        for (int last = end - species.length(); i <= last;
+                i += species.length()) {
+            ShortVector v = ShortVector.fromCharArray(species, buf, i);
+            VectorMask<Short> found = v.compare(UNSIGNED_GE, lo)
+                    .and(v.compare(UNSIGNED_LE, hi))
+                    .or(v.eq((short) Entities.lt))
+                    .or(v.eq((short) Entities.gt))
+                    .or(v.eq((short) Entities.amp))
+                    .or(v.eq((short) Entities.quot))
+                    .or(v.eq((short) Entities.apos));
+            for (long bits = found.toLong(); bits != 0; bits &= bits - 1) {
+                int k = i + Long.numberOfTrailingZeros(bits);
+                char c = buf[k];
+                if (exact || c < 128 || Entities.htmlEntityOf(c) >= 0) {
+                    return k;
+                }
+            }
+        }
+
+        return i;
+    }
+
+    /**
+     * @return the index of the first <code>&amp;</code> from <code>i</code>
+     *         or of the last characters before <code>end</code> which are
+     *         less than a vector
+     */
+    static int indexOfAmp(char[] buf, int i, int end) {
+        for (int last = end - species.length(); i <= last;
+                i += species.length()) {
+            VectorMask<Short> found = ShortVector.fromCharArray(species, buf, i)
+                    .eq((short) Entities.amp);
+            if (found.anyTrue()) {
+                return i + found.firstTrue();
+            }
+        }
+
+        return i;
+    }
+}
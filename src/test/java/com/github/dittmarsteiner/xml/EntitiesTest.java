@@ -18,6 +18,12 @@
  */
 package com.github.dittmarsteiner.xml;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
 import junit.framework.TestCase;
 
 /**
@@ -64,6 +70,184 @@ public class EntitiesTest extends TestCase {
         assertEquals(escapedAsciiXml, result);
     }
 
+    public void testEncodeAsciiXmlStream() throws IOException {
+        StringWriter writer = new StringWriter();
+        Entities.encodeAsciiXml(new StringReader(xhtml + "\u0080"), writer);
+        assertEquals(escapedAsciiXml + "&#128;", writer.toString());
+    }
+
+    public void testEncodeHtmlStream() throws IOException {
+        // larger than Entities.bufferSize to cross chunk boundaries
+        StringBuilder source = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        while (source.length() <= 3 * Entities.bufferSize) {
+            source.append(xhtml);
+            expected.append(escapedHtml);
+        }
+
+        StringWriter writer = new StringWriter();
+        Entities.encodeHtml(new StringReader(source.toString()), writer);
+        assertEquals(expected.toString(), writer.toString());
+    }
+
+    public void testEncodeIntoOpenWriter() throws IOException {
+        OpenWriter writer = new OpenWriter();
+        writer.write("<p title=\"");
+        String title = "a \"b\" & \u00E4";
+        Entities.encodeHtml(title, 0, title.length(), writer);
+        writer.write("\">");
+        Entities.encodeXml(new StringReader(xhtml), writer, false);
+        Entities.encodeAsciiXml(new StringBuilder("\u00E4"), 0, 1, writer);
+        writer.write("</p>");
+        assertEquals("<p title=\"a &quot;b&quot; &amp; &auml;\">"
+                + escapedXml + "&#228;</p>", writer.toString());
+
+        // a surrogate pair across the chunks of Entities.bufferSize
+        char[] chars = new char[Entities.bufferSize + 1];
+        Arrays.fill(chars, 'a');
+        chars[Entities.bufferSize - 1] = '\uD83D';
+        chars[Entities.bufferSize] = '\uDE00';
+        String str = new String(chars);
+        writer = new OpenWriter();
+        Entities.encodeAsciiXml(str, 0, str.length(), writer);
+        assertEquals(Entities.encodeAsciiXml(str), writer.toString());
+    }
+
+    public void testEncodeBatch() {
+        String plain = "nothing to encode";
+        String[] in = { xhtml, plain, null, "", xhtml + "\uD83D\uDE00" };
+        String[] out = new String[in.length];
+        Entities.encodeHtml(in, out);
+        assertEquals(escapedHtml, out[0]);
+        // not copied
+        assertSame(plain, out[1]);
+        assertEquals("", out[2]);
+        assertEquals(Entities.encodeHtml(in[4]), out[4]);
+
+        Entities.encodeXml(in, out);
+        assertEquals(escapedXml, out[0]);
+        // in place
+        Entities.encodeAsciiXml(in, in);
+        assertEquals(escapedAsciiXml, in[0]);
+        assertEquals(Entities.encodeAsciiXml(xhtml + "\uD83D\uDE00"), in[4]);
+    }
+
+    public void testEncodeMaxValue() {
+        String str = "a\uFFFFb";
+        assertEquals(str, Entities.encodeXml(str));
+    }
+
+    public void testEncodeNone() {
+        String str = "abcABC";
+        assertTrue(str == Entities.encodeHtml(str));
+        assertTrue(str == Entities.encodeXml(str));
+        assertTrue(str == Entities.encodeAsciiXml(str));
+
+        str = "äöü\u4E2D\u6587";
+        assertTrue(str == Entities.encodeXml(str));
+        assertFalse(str == Entities.encodeAsciiXml(str));
+        assertEquals("&auml;&ouml;&uuml;\u4E2D\u6587", Entities.encodeHtml(str));
+    }
+
+    public void testEncodeAllHtmlEntities() {
+        char[] offsets = EncodeTable.nameOffsets;
+        for (int i = 0; i < EncodeTable.codes.length; i++) {
+            String str = String.valueOf(EncodeTable.codes[i]);
+            String entity = new String(EncodeTable.names, offsets[i],
+                    offsets[i + 1] - offsets[i]);
+            assertEquals(entity, Entities.encodeHtml(str));
+            // HTML5 decodes &lang; and &rang; as U+27E8 and U+27E9
+            if (str.charAt(0) != 0x2329 && str.charAt(0) != 0x232A) {
+                assertEquals(str, Entities.decode(entity));
+            }
+        }
+        assertEquals(248, EncodeTable.codes.length);
+        assertEquals("\u27E8\u27E9", Entities.decode("&lang;&rang;"));
+        // no entities in between
+        assertEquals("\u0080\u009F\u2667\uFFFF",
+                Entities.encodeHtml("\u0080\u009F\u2667\uFFFF"));
+    }
+
+    public void testEncodeSupplementary() throws IOException {
+        String emoji = "\uD83D\uDE00"; // U+1F600
+        assertEquals("&#128512;", Entities.encodeAsciiXml(emoji));
+        assertEquals(emoji, Entities.encodeXml(emoji));
+        assertEquals(emoji, Entities.encodeHtml(emoji));
+        // lone surrogates
+        assertEquals("&#55357;a&#56832;",
+                Entities.encodeAsciiXml("\uD83Da\uDE00"));
+
+        // surrogate pair between two chunks
+        StringBuilder source = new StringBuilder();
+        while (source.length() < Entities.bufferSize - 1) {
+            source.append('a');
+        }
+        source.append(emoji).append(emoji);
+        StringWriter writer = new StringWriter();
+        Entities.encodeAsciiXml(new StringReader(source.toString()), writer);
+        assertEquals(source.substring(0, Entities.bufferSize - 1)
+                + "&#128512;&#128512;", writer.toString());
+    }
+
+    public void testEncodeCharSequence() {
+        StringBuilder sb = new StringBuilder("<");
+        Entities.encodeHtml(new StringBuilder("xx").append(xhtml), 2,
+                2 + xhtml.length(), sb);
+        Entities.encodeXml(CharBuffer.wrap(xhtml.toCharArray()), 0,
+                xhtml.length(), sb);
+        Entities.encodeAsciiXml(xhtml, 0, xhtml.length(), sb);
+        Entities.encodeHtml("&", 1, 1, sb);
+        assertEquals("<" + escapedHtml + escapedXml + escapedAsciiXml,
+                sb.toString());
+    }
+
+    public void testEncodeNull() {
+        assertEquals("", Entities.encodeHtml(null));
+    }
+
+    public void testEncodedLength() {
+        String[] strs = { "", "abcABC", xhtml, "\uD83D\uDE00\uD83Da\uDE00",
+                "\u0080\u009F\u2667\uFFFF\u0100\u2666\u03D1" };
+        for (String str : strs) {
+            assertEquals(Entities.encodeHtml(str).length(),
+                    Entities.encodedHtmlLength(str));
+            assertEquals(Entities.encodeXml(str).length(),
+                    Entities.encodedXmlLength(str));
+            assertEquals(Entities.encodeAsciiXml(str).length(),
+                    Entities.encodedAsciiXmlLength(new StringBuilder(str)));
+        }
+        assertEquals(0, Entities.encodedHtmlLength(null));
+
+        // sized exactly
+        StringBuilder large = new StringBuilder();
+        while (large.length() < Entities.minExactLength) {
+            large.append(xhtml);
+        }
+        String html = Entities.encodeHtml(large.toString());
+        assertEquals(html.length(), Entities.encodedHtmlLength(large));
+        assertEquals(html, Entities.encodeHtml(large.toString() + "\u03D1")
+                .substring(0, html.length()));
+
+        char[] offsets = EncodeTable.nameOffsets;
+        for (int i = 0; i < EncodeTable.codes.length; i++) {
+            assertEquals(offsets[i + 1] - offsets[i], Entities
+                    .encodedHtmlLength(String.valueOf(EncodeTable.codes[i])));
+        }
+    }
+
+    public void testDecodeCharArray() {
+        char[] src = ("xx" + escapedHtml + "&am").toCharArray();
+        char[] dst = new char[src.length];
+        int len = Entities.decode(src, 2, src.length - 2, dst, 1);
+        assertEquals(xhtml + "&am", new String(dst, 1, len));
+
+        // in place
+        len = Entities.decode(src, 2, escapedHtml.length(), src, 0);
+        assertEquals(xhtml, new String(src, 0, len));
+
+        assertEquals(0, Entities.decode(src, 0, 0, dst, 0));
+    }
+
     public void testDecodeHtml() {
         String ml = Entities.decode(escapedHtml);
         assertEquals(xhtml, ml);
@@ -124,6 +308,26 @@ public class EntitiesTest extends TestCase {
         assertEquals("ä", str);
     }
 
+    public void testDecodeUpperCaseHexEntity() {
+        assertEquals("\u00e4\u00e4", Entities.decode("&#XE4;&#xe4;"));
+    }
+
+    public void testDecodeSupplementary() {
+        assertEquals("\uD83D\uDE00\uD83D\uDE00",
+                Entities.decode("&#x1F600;&#128512;"));
+        assertEquals("\uDBFF\uDFFF", Entities.decode("&#x10FFFF;"));
+    }
+
+    public void testDecodeNumericInvalids() {
+        // beyond Character.MAX_CODE_POINT
+        assertEquals("&#x110000;", Entities.decode("&#x110000;"));
+        assertEquals("&#99999999;", Entities.decode("&#99999999;"));
+        assertEquals("&#xx1;", Entities.decode("&#xx1;"));
+        assertEquals("&#1x;", Entities.decode("&#1x;"));
+        assertEquals("&#-1;", Entities.decode("&#-1;"));
+        assertEquals("&#\u0661;", Entities.decode("&#\u0661;"));
+    }
+
     public void testDecodeLargestNamedEntity() {
         String markup = "&thetasym;"; // allowed
         String str = Entities.decode(markup);
@@ -131,6 +335,66 @@ public class EntitiesTest extends TestCase {
         assertEquals(977, str.charAt(0));
     }
 
+    public void testDecodeHtml5() {
+        assertEquals("\u2242\u0338", Entities.decode("&NotEqualTilde;"));
+        assertEquals("\uD835\uDD04", Entities.decode("&Afr;"));
+        assertEquals("\u2233",
+                Entities.decode("&CounterClockwiseContourIntegral;"));
+        assertEquals("\n\t", Entities.decode("&NewLine;&Tab;"));
+        assertEquals("&CounterClockwiseContourIntegralX;",
+                Entities.decode("&CounterClockwiseContourIntegralX;"));
+    }
+
+    public void testDecodeLegacy() {
+        assertEquals("\u00E4", Entities.decode("&auml"));
+        assertEquals("\u00AC in", Entities.decode("&not in"));
+        assertEquals("\u2209", Entities.decode("&notin;"));
+        assertEquals("&notin", Entities.decode("&notin"));
+        assertEquals("&notx", Entities.decode("&notx"));
+        assertEquals("?a=1&copy=2", Entities.decode("?a=1&copy=2"));
+        assertEquals("\u00A9<", Entities.decode("&copy&lt;"));
+        // only with ;
+        assertEquals("&hellip", Entities.decode("&hellip"));
+    }
+
+    public void testDecodeStream() throws IOException {
+        // larger than Entities.bufferSize to split references between chunks
+        StringBuilder source = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        while (source.length() <= 3 * Entities.bufferSize) {
+            source.append(escapedHtml).append(' ').append(escapedAsciiXml);
+            expected.append(xhtml).append(' ').append(xhtml);
+        }
+
+        StringWriter writer = new StringWriter();
+        Entities.decode(new StringReader(source.toString()), writer);
+        assertEquals(expected.toString(), writer.toString());
+    }
+
+    public void testDecodeIntoOpenWriter() throws IOException {
+        OpenWriter writer = new OpenWriter();
+        Entities.decode(new StringReader(escapedHtml), writer, false);
+        Entities.decode(new StringReader(" &amp"), writer, false);
+        assertEquals(xhtml + " &", writer.toString());
+    }
+
+    public void testDecodeBatch() {
+        String plain = "nothing to decode";
+        String[] in = { escapedHtml, plain, null, escapedAsciiXml, "&amp",
+                "x&lt;" };
+        Entities.decode(in, in);
+        assertEquals(Arrays.asList(xhtml, plain, "", xhtml, "&", "x<"),
+                Arrays.asList(in));
+        assertSame(plain, in[1]);
+    }
+
+    public void testDecodeRestart() {
+        assertEquals("&<", Entities.decode("&amp&lt;"));
+        assertEquals("&ampx<", Entities.decode("&ampx&lt;"));
+        assertEquals("&aumlx;", Entities.decode("&aumlx;"));
+        assertEquals("&#x&#;<", Entities.decode("&#x&#;&lt;"));
+    }
+
     public void testDecodeInvalids() {
         String ml = Entities.decode("&amp;&#;");
         assertEquals("&&#;", ml);
@@ -179,6 +443,45 @@ public class EntitiesTest extends TestCase {
         assertEquals("&173;", ml);
     }
 
+    public void testOutput() throws IOException {
+        final int[] writes = new int[1];
+        StringWriter writer = new OpenWriter() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                writes[0]++;
+                super.write(cbuf, off, len);
+            }
+
+            @Override
+            public void write(String str, int off, int len) {
+                writes[0]++;
+                super.write(str, off, len);
+            }
+        };
+        Entities.Output output = new Entities.Output(writer, 8);
+        output.write('<');
+        output.write("abc", 0, 3);
+        assertEquals("", writer.toString());
+        // does not fit, drained first
+        output.write("defgh".toCharArray(), 0, 5);
+        assertEquals("<abc", writer.toString());
+        // larger than the buffer, passed on as is
+        output.write("ijklmnopq", 0, 9);
+        assertEquals("<abcdefghijklmnopq", writer.toString());
+        output.write('r');
+        output.drain();
+        assertEquals("<abcdefghijklmnopqr", writer.toString());
+        assertEquals(19, output.count);
+        assertEquals(4, writes[0]);
+
+        // a few writes for all the runs and entities
+        writes[0] = 0;
+        writer.getBuffer().setLength(0);
+        Entities.encodeHtml(xhtml, 0, xhtml.length(), writer);
+        assertEquals(escapedHtml, writer.toString());
+        assertTrue(writes[0] <= 2);
+    }
+
     private void assertEscapedXml(String str) {
         // Predefined XML entities
         assertFalse(str.contains("<"));
@@ -191,4 +494,20 @@ public class EntitiesTest extends TestCase {
         assertTrue(str.contains("&lt;"));
         assertTrue(str.contains("&gt;"));
     }
+
+    /**
+     * Fails on {@link #flush()} and {@link #close()}, which are left to the
+     * caller.
+     */
+    static class OpenWriter extends StringWriter {
+        @Override
+        public void flush() {
+            fail("flushed");
+        }
+
+        @Override
+        public void close() {
+            fail("closed");
+        }
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityCacheTest extends TestCase {
+
+    String xhtml = "<b>\"äöüÄÖÜß­\" & ''</b>";
+
+    public void testLikeEntities() {
+        String encoded = Entities.encodeHtml(xhtml);
+        EntityCache html = EntityCache.html(1 << 20, 64);
+        EntityCache decode = EntityCache.decode(1 << 20, 64);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(encoded, html.get(xhtml));
+            assertEquals(Entities.encodeXml(xhtml),
+                    EntityCache.xml(1 << 20, 64).get(xhtml));
+            assertEquals(Entities.encodeAsciiXml(xhtml),
+                    EntityCache.asciiXml(1 << 20, 64).get(xhtml));
+            assertEquals(xhtml, decode.get(encoded));
+        }
+        assertEquals("", html.get(null));
+    }
+
+    public void testStatistics() {
+        EntityCache cache = EntityCache.html(1 << 20, 7);
+        cache.get("a&b");
+        cache.get("a&b");
+        cache.get("a&b");
+        cache.get("plain");
+        // too long, passed through
+        assertEquals("&lt;longer&gt;", cache.get("<longer>"));
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(0, cache.evictions());
+        // "plain" is its own value
+        assertEquals(2 * EntityCache.entryOverhead + 2 * (3 + 7) + 2 * 5,
+                cache.bytes());
+
+        cache.clear();
+        assertEquals(0, cache.hits());
+        assertEquals(0, cache.bytes());
+        cache.get("a&b");
+        assertEquals(1, cache.misses());
+    }
+
+    public void testBounded() {
+        long maxBytes = 64 * 1024;
+        EntityCache cache = EntityCache.html(maxBytes, 64);
+        for (int i = 0; i < 100000; i++) {
+            String str = "<" + i + ">";
+            // twice, so that the later ones are more frequent
+            assertEquals("&lt;" + i + "&gt;", cache.get(str));
+            cache.get(str);
+            assertTrue(cache.bytes() <= maxBytes);
+        }
+        assertTrue(cache.evictions() > 0);
+    }
+
+    public void testMaxEntryBytes() {
+        EntityCache cache = EntityCache.html(4096, 4096);
+        assertEquals(4096 / cache.segments.length, cache.maxEntryBytes());
+        // unchanged, so the value is the key
+        int length = (int) (cache.maxEntryBytes()
+                - EntityCache.entryOverhead) / 2;
+        char[] chars = new char[length + 1];
+        Arrays.fill(chars, 'a');
+        String fits = new String(chars, 0, length);
+        String over = new String(chars);
+        assertEquals(cache.maxEntryBytes(), EntityCache.weight(fits, fits));
+
+        cache.get(fits);
+        cache.get(fits);
+        assertEquals(1, cache.hits());
+        // fits maxBytes and maxLength, but not one segment
+        cache.get(over);
+        cache.get(over);
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(cache.maxEntryBytes(), cache.bytes());
+    }
+
+    public void testAdmission() {
+        String hot = "hot & frequent";
+        long weight = EntityCache.weight(hot, Entities.encodeHtml(hot));
+        EntityCache.Segment segment = new EntityCache.Segment(8 * weight);
+        // a scan of strings asked for once does not flush the hot one
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 == 0) {
+                get(segment, hot);
+            }
+            get(segment, "cold & " + (1000000 + i));
+            assertTrue(segment.stats[EntityCache.bytes] <= 8 * weight);
+        }
+        assertTrue(segment.containsKey(hot));
+
+        // a string asked for often enough gets in
+        String warm = "warm & rising";
+        for (int i = 0; i < 5; i++) {
+            get(segment, warm);
+        }
+        assertTrue(segment.containsKey(warm));
+        assertTrue(segment.containsKey(hot));
+    }
+
+    public void testAdmissionOfHeavy() {
+        EntityCache.Segment segment = new EntityCache.Segment(
+                EntityCache.weight("a", "a") + EntityCache.weight("b", "b"));
+        get(segment, "a");
+        for (int i = 0; i < 8; i++) {
+            get(segment, "b");
+        }
+        char[] chars = new char[60];
+        Arrays.fill(chars, 'h');
+        String heavy = new String(chars);
+        assertTrue(EntityCache.weight(heavy, heavy) > segment.maxBytes / 2);
+
+        // would evict "a", asked for less, but also "b", asked for more
+        for (int i = 0; i < 5; i++) {
+            get(segment, heavy);
+        }
+        assertFalse(segment.containsKey(heavy));
+        assertTrue(segment.containsKey("a"));
+        assertTrue(segment.containsKey("b"));
+        assertEquals(0, segment.stats[EntityCache.evictions]);
+
+        // asked for more often than both
+        for (int i = 0; i < 5; i++) {
+            get(segment, heavy);
+        }
+        assertTrue(segment.containsKey(heavy));
+        assertEquals(2, segment.stats[EntityCache.evictions]);
+    }
+
+    public void testConcurrent() throws InterruptedException {
+        final EntityCache cache = EntityCache.html(16 * 1024, 64);
+        final AtomicReference<String> error = new AtomicReference<String>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        String str = "&" + (i * (seed + 1) % 500) + "ä";
+                        if (!Entities.encodeHtml(str).equals(cache.get(str))) {
+                            error.set(str);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+        assertEquals(4 * 20000, cache.hits() + cache.misses());
+        assertTrue(cache.bytes() <= 16 * 1024);
+    }
+
+    /**
+     * Like {@link EntityCache#get(String)} for one segment
+     */
+    static String get(EntityCache.Segment segment, String str) {
+        int h = str.hashCode();
+        h ^= h >>> 16;
+        String value = segment.get(str, h);
+        if (value == null) {
+            value = Entities.encodeHtml(str);
+            segment.put(str, value, h);
+        }
+
+        return value;
+    }
+}
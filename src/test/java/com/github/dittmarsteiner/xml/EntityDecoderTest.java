@@ -0,0 +1,163 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Feeds {@link EntityDecoder} in chunks and compares with
+ * {@link Entities#decode(String)}.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityDecoderTest extends TestCase {
+
+    String escaped = Entities.encodeHtml(
+            "<html><body>\"äöüÄÖÜß­\" & ''</body></html> ϑ € 😀")
+            + " &NotEqualTilde; &nGt; &Afr; &auml &auml= &#x1F600; &#0;"
+            + " &CounterClockwiseContourIntegral; &amp&lt; &#x &#12 &unknown;";
+
+    public void testSplitReference() {
+        EntityDecoder decoder = new EntityDecoder();
+        CharBuffer out = CharBuffer.allocate(16);
+        assertSame(CoderResult.UNDERFLOW,
+                decoder.feed(CharBuffer.wrap("x &Au"), out));
+        assertSame(CoderResult.UNDERFLOW,
+                decoder.feed(CharBuffer.wrap("ml; y"), out));
+        assertSame(CoderResult.UNDERFLOW, decoder.finish(out));
+        out.flip();
+        assertEquals("x Ä y", out.toString());
+    }
+
+    public void testFinishLegacy() {
+        EntityDecoder decoder = new EntityDecoder();
+        CharBuffer out = CharBuffer.allocate(16);
+        decoder.feed(CharBuffer.wrap("&auml"), out);
+        assertEquals(0, out.position());
+        assertSame(CoderResult.UNDERFLOW, decoder.finish(out));
+        out.flip();
+        assertEquals("ä", out.toString());
+    }
+
+    public void testOverflow() {
+        EntityDecoder decoder = new EntityDecoder();
+        CharBuffer in = CharBuffer.wrap("&#x1F600;ab");
+        CharBuffer out = CharBuffer.allocate(1);
+        assertSame(CoderResult.OVERFLOW, decoder.feed(in, out));
+        assertEquals('\uD83D', out.get(0));
+        out.clear();
+        assertSame(CoderResult.OVERFLOW, decoder.feed(in, out));
+        assertEquals('\uDE00', out.get(0));
+    }
+
+    public void testReset() {
+        EntityDecoder decoder = new EntityDecoder();
+        CharBuffer out = CharBuffer.allocate(16);
+        decoder.feed(CharBuffer.wrap("&Au"), out);
+        decoder.reset().feed(CharBuffer.wrap("ml;"), out);
+        decoder.finish(out);
+        out.flip();
+        assertEquals("ml;", out.toString());
+    }
+
+    public void testReuse() {
+        EntityDecoder decoder = new EntityDecoder();
+        String large = escaped;
+        while (large.length() <= Entities.maxRetainedLength) {
+            large += large;
+        }
+        String[] all = { escaped, "", "abc", "&", large, "&auml", escaped };
+        for (String s : all) {
+            assertEquals(Entities.decode(s), decoder.decode(s));
+        }
+        assertTrue(decoder.chars.length <= Entities.maxRetainedLength);
+
+        // also after a pending reference
+        decoder.feed(CharBuffer.wrap("&Au"), CharBuffer.allocate(16));
+        assertEquals("ml;", decoder.decode("ml;"));
+        decoder.feed(CharBuffer.wrap("&Au"), CharBuffer.allocate(16));
+        char[] dst = new char[16];
+        assertEquals(1, decoder.decode("&auml;".toCharArray(), 0, 6, dst, 0));
+        assertEquals('ä', dst[0]);
+    }
+
+    public void testChunks() {
+        for (int chunk = 1; chunk < 40; chunk += 3) {
+            for (int room = 1; room < 40; room += 5) {
+                assertEquals(chunk + " " + room, Entities.decode(escaped),
+                        decode(escaped, chunk, room, false));
+                assertEquals(chunk + " " + room, Entities.decode(escaped),
+                        decode(escaped, chunk, room, true));
+            }
+        }
+    }
+
+    public void testRandom() {
+        Random random = new Random(0xE4L);
+        String alphabet = "&;#xX0a9AEFlumgtp ä";
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 1000; n++) {
+            sb.setLength(0);
+            int len = random.nextInt(40);
+            for (int i = 0; i < len; i++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String s = sb.toString();
+            assertEquals(s, Entities.decode(s),
+                    decode(s, 1 + random.nextInt(8), 1 + random.nextInt(8),
+                            random.nextBoolean()));
+        }
+    }
+
+    /**
+     * @param readOnly
+     *            without an array to copy from
+     */
+    static String decode(String s, int chunk, int room, boolean readOnly) {
+        EntityDecoder decoder = new EntityDecoder();
+        StringBuilder sb = new StringBuilder();
+        CharBuffer out = CharBuffer.allocate(room);
+        for (int i = 0; i < s.length(); i += chunk) {
+            CharBuffer in = readOnly
+                    ? CharBuffer.wrap(s, i, Math.min(i + chunk, s.length()))
+                    : CharBuffer.wrap(s.substring(i,
+                            Math.min(i + chunk, s.length())).toCharArray());
+            while (decoder.feed(in, out) == CoderResult.OVERFLOW) {
+                drain(out, sb);
+            }
+            assertFalse(in.hasRemaining());
+        }
+        while (decoder.finish(out) == CoderResult.OVERFLOW) {
+            drain(out, sb);
+        }
+        drain(out, sb);
+
+        return sb.toString();
+    }
+
+    static void drain(CharBuffer out, StringBuilder sb) {
+        out.flip();
+        sb.append(out);
+        out.clear();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityDecodingReaderTest extends TestCase {
+
+    String encoded;
+    String decoded;
+
+    @Override
+    protected void setUp() {
+        // larger than Entities.bufferSize to split references between reads
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= 3 * Entities.bufferSize) {
+            sb.append("&lt;p&gt;&Auml;&#196;&#xC4;&auml &amp &notit; &#;"
+                    + " &#128512; &CounterClockwiseContourIntegral; x ");
+        }
+        encoded = sb.toString() + "&amp";
+        decoded = Entities.decode(encoded);
+    }
+
+    public void testReadSizes() throws IOException {
+        int[] sizes = { 1, 2, 7, Entities.maxReferenceLength,
+                Entities.maxReferenceLength + 1, 100, Entities.bufferSize,
+                10 * Entities.bufferSize };
+        for (int size : sizes) {
+            assertEquals("size " + size, decoded, read(size));
+        }
+    }
+
+    public void testReadChar() throws IOException {
+        Reader reader = new EntityDecodingReader(new StringReader(encoded));
+        StringBuilder sb = new StringBuilder();
+        for (int c; (c = reader.read()) >= 0;) {
+            sb.append((char) c);
+        }
+        reader.close();
+        assertEquals(decoded, sb.toString());
+    }
+
+    public void testSkip() throws IOException {
+        Reader reader = new EntityDecodingReader(
+                new StringReader("&lt;&lt;&amp;a&gt;"));
+        assertEquals(3, reader.skip(3));
+        assertEquals('a', reader.read());
+        assertEquals(1, reader.skip(5));
+        assertEquals(-1, reader.read());
+        assertEquals(0, reader.skip(1));
+        assertFalse(reader.markSupported());
+        reader.close();
+    }
+
+    public void testEmpty() throws IOException {
+        Reader reader = new EntityDecodingReader(new StringReader(""));
+        assertEquals(-1, reader.read(new char[10], 0, 10));
+        assertEquals(0, reader.read(new char[10], 0, 0));
+        reader.close();
+    }
+
+    String read(int size) throws IOException {
+        Reader reader = new EntityDecodingReader(new StringReader(encoded));
+        StringBuilder sb = new StringBuilder();
+        char[] cbuf = new char[size + 3];
+        for (int n; (n = reader.read(cbuf, 3, size)) >= 0;) {
+            sb.append(cbuf, 3, n);
+        }
+        reader.close();
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Feeds {@link EntityEncoder} in chunks and compares with the
+ * {@link String} versions of {@link Entities}.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityEncoderTest extends TestCase {
+
+    String xhtml = "<html><body>\"äöüÄÖÜß­\" & ''</body></html>"
+            + " ϑ € 中文 😀 〈 \uDE00 \uD83D";
+
+    public void testSplitSurrogate() {
+        EntityEncoder encoder = EntityEncoder.asciiXml();
+        CharBuffer out = CharBuffer.allocate(16);
+        assertSame(CoderResult.UNDERFLOW,
+                encoder.feed(CharBuffer.wrap("x\uD83D"), out));
+        assertSame(CoderResult.UNDERFLOW,
+                encoder.feed(CharBuffer.wrap("\uDE00"), out));
+        assertSame(CoderResult.UNDERFLOW, encoder.finish(out));
+        out.flip();
+        assertEquals("x&#128512;", out.toString());
+    }
+
+    public void testFinishHighSurrogate() {
+        EntityEncoder encoder = EntityEncoder.asciiXml();
+        CharBuffer out = CharBuffer.allocate(4);
+        encoder.feed(CharBuffer.wrap("\uD83D"), out);
+        assertEquals(0, out.position());
+        assertSame(CoderResult.OVERFLOW, encoder.finish(out));
+        out.flip();
+        assertEquals("&#55", out.toString());
+        out.clear();
+        assertSame(CoderResult.UNDERFLOW, encoder.finish(out));
+        out.flip();
+        assertEquals("357;", out.toString());
+    }
+
+    public void testReset() {
+        EntityEncoder encoder = EntityEncoder.asciiXml();
+        CharBuffer out = CharBuffer.allocate(16);
+        encoder.feed(CharBuffer.wrap("\uD83D"), out);
+        encoder.reset().feed(CharBuffer.wrap("a"), out);
+        encoder.finish(out);
+        out.flip();
+        assertEquals("a", out.toString());
+    }
+
+    public void testReuse() {
+        String large = xhtml;
+        while (large.length() <= Entities.maxRetainedLength) {
+            large += large;
+        }
+        String[] all = { xhtml, null, "", "abc", large, "<", xhtml };
+        EntityEncoder html = EntityEncoder.html();
+        EntityEncoder xml = EntityEncoder.xml();
+        EntityEncoder asciiXml = EntityEncoder.asciiXml();
+        for (String s : all) {
+            assertEquals(Entities.encodeHtml(s), html.encode(s));
+            assertEquals(Entities.encodeXml(s), xml.encode(s));
+            assertEquals(Entities.encodeAsciiXml(s), asciiXml.encode(s));
+        }
+        assertTrue(html.sb.length() <= Entities.maxRetainedLength);
+        String none = "nothing to encode";
+        assertSame(none, html.encode(none));
+    }
+
+    public void testChunks() {
+        for (int chunk = 1; chunk < 40; chunk += 3) {
+            for (int room = 1; room < 40; room += 5) {
+                assertChunks(xhtml, chunk, room);
+            }
+        }
+    }
+
+    public void testRandom() {
+        Random random = new Random(0xE4L);
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 1000; n++) {
+            sb.setLength(0);
+            int len = random.nextInt(40);
+            for (int i = 0; i < len; i++) {
+                sb.append("<>&\"'a ä­€中😀"
+                        .charAt(random.nextInt(13)));
+            }
+            assertChunks(sb.toString(), 1 + random.nextInt(8),
+                    1 + random.nextInt(8));
+        }
+    }
+
+    static void assertChunks(String s, int chunk, int room) {
+        String message = s + " " + chunk + " " + room;
+        assertEquals(message, Entities.encodeHtml(s),
+                encode(EntityEncoder.html(), s, chunk, room, false));
+        assertEquals(message, Entities.encodeXml(s),
+                encode(EntityEncoder.xml(), s, chunk, room, true));
+        assertEquals(message, Entities.encodeAsciiXml(s),
+                encode(EntityEncoder.asciiXml(), s, chunk, room, false));
+        assertEquals(message, Entities.encodeAsciiXml(s),
+                encode(EntityEncoder.asciiXml(), s, chunk, room, true));
+    }
+
+    /**
+     * @param readOnly
+     *            without an array to copy from
+     */
+    static String encode(EntityEncoder encoder, String s, int chunk,
+            int room, boolean readOnly) {
+        StringBuilder sb = new StringBuilder();
+        CharBuffer out = CharBuffer.allocate(room);
+        for (int i = 0; i < s.length(); i += chunk) {
+            CharBuffer in = readOnly
+                    ? CharBuffer.wrap(s, i, Math.min(i + chunk, s.length()))
+                    : CharBuffer.wrap(s.substring(i,
+                            Math.min(i + chunk, s.length())).toCharArray());
+            while (encoder.feed(in, out) == CoderResult.OVERFLOW) {
+                EntityDecoderTest.drain(out, sb);
+            }
+            assertFalse(in.hasRemaining());
+        }
+        while (encoder.finish(out) == CoderResult.OVERFLOW) {
+            EntityDecoderTest.drain(out, sb);
+        }
+        EntityDecoderTest.drain(out, sb);
+
+        return sb.toString();
+    }
+}
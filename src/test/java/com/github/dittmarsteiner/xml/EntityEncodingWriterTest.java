@@ -0,0 +1,115 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityEncodingWriterTest extends TestCase {
+
+    String xhtml = "<html><body>\"äöüÄÖÜ"
+            + "ß­\" & ''</body></html> 😀 \uD83Da\uDE00";
+
+    public void testBulk() throws IOException {
+        StringWriter out = new StringWriter();
+        Writer writer = new EntityEncodingWriter(out);
+        writer.write(xhtml.toCharArray(), 0, xhtml.length());
+        writer.write(xhtml);
+        writer.close();
+        assertEquals(Entities.encodeHtml(xhtml + xhtml), out.toString());
+    }
+
+    public void testCharByChar() throws IOException {
+        StringWriter out = new StringWriter();
+        Writer writer = new EntityEncodingWriter(out, EscapePolicy.ASCII_XML);
+        for (int i = 0; i < xhtml.length(); i++) {
+            writer.write(xhtml.charAt(i));
+        }
+        writer.close();
+        assertEquals(Entities.encodeAsciiXml(xhtml), out.toString());
+    }
+
+    public void testSurrogatePairBetweenWrites() throws IOException {
+        StringWriter out = new StringWriter();
+        Writer writer = new EntityEncodingWriter(out, EscapePolicy.XML);
+        writer.write("a\uD83D");
+        writer.flush();
+        assertEquals("a", out.toString());
+        writer.append('\uDE00').append("b\uD83D").write("c");
+        // a high surrogate at the end is written by close()
+        writer.write('\uD83D');
+        writer.close();
+        assertEquals(Entities.encodeXml("a😀b\uD83Dc\uD83D"),
+                out.toString());
+    }
+
+    public void testLongString() throws IOException {
+        StringBuilder source = new StringBuilder("<");
+        while (source.length() <= 3 * Entities.bufferSize) {
+            source.append(xhtml);
+        }
+
+        StringWriter out = new StringWriter();
+        Writer writer = new EntityEncodingWriter(out, EscapePolicy.HTML5);
+        writer.write(source.toString());
+        writer.close();
+        assertEquals(EscapePolicy.HTML5.encode(source.toString()),
+                out.toString());
+    }
+
+    public void testClose() throws IOException {
+        final int[] closes = new int[1];
+        StringWriter out = new StringWriter() {
+            @Override
+            public void close() throws IOException {
+                closes[0]++;
+                super.close();
+            }
+        };
+        Writer writer = new EntityEncodingWriter(out);
+        writer.write("a&\uD83D");
+        writer.close();
+        // no effect
+        writer.close();
+        assertEquals("a&amp;\uD83D", out.toString());
+        assertEquals(1, closes[0]);
+
+        try {
+            writer.write('b');
+            fail("written after close");
+        }
+        catch (IOException e) {
+            // as expected
+        }
+        try {
+            writer.write("b");
+            fail("written after close");
+        }
+        catch (IOException e) {
+            // as expected
+        }
+        assertEquals("a&amp;\uD83D", out.toString());
+    }
+}
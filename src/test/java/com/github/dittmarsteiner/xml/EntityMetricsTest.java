@@ -0,0 +1,110 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EntityMetricsTest extends TestCase {
+
+    EntityMetrics metrics;
+
+    @Override
+    protected void setUp() {
+        metrics = new EntityMetrics();
+        Entities.setListener(metrics);
+    }
+
+    @Override
+    protected void tearDown() {
+        Entities.setListener(null);
+    }
+
+    public void testEncode() throws IOException {
+        Entities.encodeHtml("a<b>ä");
+        Entities.encodeXml("as is");
+        Entities.encodeAsciiXml(new StringReader("😀&"), new StringWriter());
+        Entities.encodeHtml("<", 0, 1, new StringBuilder());
+        assertEquals(4, metrics.encodeCalls());
+        assertEquals(5 + 5 + 3 + 1, metrics.encodeChars());
+        assertEquals(16 + 5 + 14 + 4, metrics.encodedChars());
+        assertEquals(3 + 0 + 2 + 1, metrics.entities());
+        assertTrue(metrics.encodeNanos() > 0);
+        assertEquals(0, metrics.decodeCalls());
+    }
+
+    public void testDecode() throws IOException {
+        Entities.decode("a&lt;b&gt;&auml;&xAD;&#228;&#x;&auml");
+        Entities.decode("as is");
+        char[] chars = "&amp;&".toCharArray();
+        Entities.decode(chars, 0, chars.length, chars, 0);
+        Entities.decode(new StringReader("&lt;&&#12"), new StringWriter());
+        assertEquals(4, metrics.decodeCalls());
+        assertEquals(36 + 5 + 6 + 9, metrics.decodeChars());
+        assertEquals(16 + 5 + 2 + 6, metrics.decodedChars());
+        assertEquals(7 + 0 + 2 + 3, metrics.references());
+        assertEquals(2 + 0 + 1 + 2, metrics.malformed());
+        assertEquals(0, metrics.encodeCalls());
+
+        metrics.reset();
+        assertEquals(0, metrics.decodeCalls());
+        assertEquals(0, metrics.decodeChars());
+    }
+
+    public void testParallel() {
+        int minChunkLength = Parallel.minChunkLength;
+        Parallel.minChunkLength = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                sb.append("<äöü> & ");
+            }
+            String encoded = Entities.encodeHtmlParallel(sb, pool);
+            assertEquals(sb.length(), metrics.encodeChars());
+            assertEquals(encoded.length(), metrics.encodedChars());
+            assertEquals(600, metrics.entities());
+
+            Entities.decodeParallel(encoded, pool);
+            assertEquals(encoded.length(), metrics.decodeChars());
+            assertEquals(sb.length(), metrics.decodedChars());
+            assertEquals(600, metrics.references());
+        }
+        finally {
+            pool.shutdown();
+            Parallel.minChunkLength = minChunkLength;
+        }
+    }
+
+    public void testDisabled() {
+        Entities.setListener(null);
+        Entities.encodeHtml("<");
+        Entities.decode("&lt;");
+        assertEquals(0, metrics.encodeCalls());
+        assertEquals(0, metrics.decodeCalls());
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import com.github.dittmarsteiner.xml.EscapePolicy.Action;
+
+import junit.framework.TestCase;
+
+/**
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class EscapePolicyTest extends TestCase {
+
+    String xhtml = "<html><body>\"äöüÄÖÜß­\" & ''</body></html>"
+            + " ϑ € 😀 \uD83Da\uDE00 Ā";
+
+    public void testLikeEntities() throws IOException {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            String str = String.valueOf((char) c);
+            assertEquals(Entities.encodeHtml(str),
+                    EscapePolicy.HTML.encode(str));
+            assertEquals(Entities.encodeXml(str),
+                    EscapePolicy.XML.encode(str));
+            assertEquals(Entities.encodeAsciiXml(str),
+                    EscapePolicy.ASCII_XML.encode(str));
+        }
+        assertEquals(Entities.encodeHtml(xhtml),
+                EscapePolicy.HTML.encode(xhtml));
+        assertEquals(Entities.encodeXml(xhtml), EscapePolicy.XML.encode(xhtml));
+        assertEquals(Entities.encodeAsciiXml(xhtml),
+                EscapePolicy.ASCII_XML.encode(xhtml));
+    }
+
+    public void testContexts() {
+        String str = "<a href=\"?a=1&b=2\">it's ä</a>";
+        assertEquals("<a href=&quot;?a=1&amp;b=2&quot;>it's ä</a>",
+                EscapePolicy.ATTRIBUTE.encode(str));
+        assertEquals("&lt;a href=\"?a=1&amp;b=2\">it's ä&lt;/a>",
+                EscapePolicy.TEXT.encode(str));
+        assertEquals("&lt;a href=&quot;?a=1&amp;b=2&quot;&gt;"
+                + "it&apos;s ä&lt;/a&gt;", EscapePolicy.HTML5.encode(str));
+        assertSame(str, EscapePolicy.builder().build().encode(str));
+        assertEquals("", EscapePolicy.TEXT.encode(null));
+    }
+
+    public void testCustom() {
+        EscapePolicy policy = EscapePolicy.builder()
+                .escape("<&", Action.NAMED)
+                .escape('\u0080', Character.MAX_VALUE, Action.HEX)
+                .escape('ä', Action.NAMED)
+                .escape('Ā', Action.NAMED)
+                .escape('é', Action.DECIMAL)
+                .escape('ü', Action.PASS)
+                .build();
+        assertEquals("&lt;&amp;>&auml;&#xF6;ü&#233;&#256;&#x1F600;&#xD83D;",
+                policy.encode("<&>äöüéĀ😀\uD83D"));
+        assertEquals(Action.HEX, policy.actionOf('ö'));
+        assertEquals(Action.PASS, policy.actionOf('>'));
+
+        EscapePolicy changed = EscapePolicy.builder(policy)
+                .escape('>', Action.DECIMAL).build();
+        assertEquals("&lt;&#62;&auml;", changed.encode("<>ä"));
+        assertEquals("<&#62;", EscapePolicy.builder(changed)
+                .escape('<', Action.PASS).build().encode("<>"));
+    }
+
+    public void testNamedWithoutName() throws IOException {
+        // a letter and a control character have no name, so decimal
+        EscapePolicy policy = EscapePolicy.builder()
+                .escape("a\n<", Action.NAMED).build();
+        String str = "xa\ny<";
+        assertEquals("x&#97;&#10;y&lt;", policy.encode(str));
+        assertEquals(16, policy.encodedLength(str));
+        StringWriter writer = new StringWriter();
+        policy.encode(str, 0, str.length(), writer);
+        assertEquals("x&#97;&#10;y&lt;", writer.toString());
+    }
+
+    public void testSurrogates() {
+        // the high one passes, the low one would be escaped
+        EscapePolicy.Builder split = EscapePolicy.builder()
+                .escape('\uDC00', '\uDFFF', Action.DECIMAL);
+        try {
+            split.build();
+            fail("a pair would be split");
+        }
+        catch (IllegalStateException e) {
+            // as expected
+        }
+        // and the other way round
+        try {
+            EscapePolicy.builder(EscapePolicy.ASCII_XML)
+                    .escape('\uDE00', Action.PASS).build();
+            fail("a pair would be split");
+        }
+        catch (IllegalStateException e) {
+            // as expected
+        }
+
+        EscapePolicy whole = split.escape('\uD800', '\uDBFF', Action.HEX)
+                .build();
+        assertEquals("&#x1F600;&#56832;", whole.encode("😀\uDE00"));
+        assertSame(Action.HEX, whole.actionOf('\uD83D'));
+    }
+
+    public void testShortest() {
+        assertEquals("&lt;&euro;&auml;&#8230;&#977;&#128512;&#xF4240;",
+                EscapePolicy.ASCII_HTML.encode("<€ä…ϑ😀\uDB90\uDE40"));
+        EscapePolicy decimal = EscapePolicy.builder()
+                .escape('\u0080', Character.MAX_VALUE, Action.DECIMAL).build();
+        EscapePolicy hex = EscapePolicy.builder()
+                .escape('\u0080', Character.MAX_VALUE, Action.HEX).build();
+        for (int c = 0x80; c <= Character.MAX_VALUE; c++) {
+            String str = String.valueOf((char) c);
+            long shortest = EscapePolicy.ASCII_HTML.encodedLength(str);
+            assertTrue(shortest <= decimal.encodedLength(str));
+            assertTrue(shortest <= hex.encodedLength(str));
+            assertTrue(shortest <= EscapePolicy.HTML.encodedLength(str)
+                    || EscapePolicy.HTML.encode(str).equals(str));
+        }
+        assertEquals(xhtml, Entities.decode(
+                EscapePolicy.ASCII_HTML.encode(xhtml)));
+    }
+
+    public void testTable() {
+        // blocks of the same actions once
+        assertEquals(2 * EscapePolicy.blockSize,
+                EscapePolicy.ASCII_XML.actions.length);
+        assertEquals(EscapePolicy.blockSize,
+                EscapePolicy.builder().build().actions.length);
+    }
+
+    public void testEncodeCharSequenceAndStream() throws IOException {
+        StringBuilder sb = new StringBuilder("<");
+        EscapePolicy.HTML5.encode(new StringBuilder("xx").append(xhtml), 2,
+                2 + xhtml.length(), sb);
+        assertEquals("<" + EscapePolicy.HTML5.encode(xhtml), sb.toString());
+
+        // surrogate pair between two chunks
+        StringBuilder source = new StringBuilder();
+        while (source.length() < Entities.bufferSize - 1) {
+            source.append('a');
+        }
+        source.append(xhtml);
+        StringWriter writer = new StringWriter();
+        EscapePolicy.ASCII_XML.encode(new StringReader(source.toString()),
+                writer);
+        assertEquals(Entities.encodeAsciiXml(source.toString()),
+                writer.toString());
+
+        // into a Writer which stays open
+        EntitiesTest.OpenWriter open = new EntitiesTest.OpenWriter();
+        EscapePolicy.ASCII_XML.encode(source, 0, source.length(), open);
+        EscapePolicy.ATTRIBUTE.encode(new StringReader("\"&"), open, false);
+        assertEquals(writer + "&quot;&amp;", open.toString());
+    }
+
+    public void testEncodedLength() {
+        EscapePolicy hex = EscapePolicy.builder(EscapePolicy.HTML)
+                .escape('Ā', Character.MAX_VALUE, Action.HEX).build();
+        EscapePolicy[] policies = { EscapePolicy.HTML, EscapePolicy.XML,
+                EscapePolicy.ASCII_XML, EscapePolicy.TEXT, hex };
+        for (EscapePolicy policy : policies) {
+            assertEquals(policy.encode(xhtml).length(),
+                    policy.encodedLength(xhtml));
+        }
+        assertEquals(0, EscapePolicy.HTML.encodedLength(null));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the parallel versions of {@link Entities} with the sequential
+ * ones, with small chunks.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class ParallelTest extends TestCase {
+
+    ExecutorService pool;
+    int minChunkLength;
+
+    @Override
+    protected void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+        minChunkLength = Parallel.minChunkLength;
+        Parallel.minChunkLength = 16;
+    }
+
+    @Override
+    protected void tearDown() {
+        pool.shutdown();
+        Parallel.minChunkLength = minChunkLength;
+    }
+
+    public void testBoundary() {
+        String s = "0123456789&Auml;0123456789012345678901234567890123456789";
+        assertEquals(5, Parallel.boundary(s, 5));
+        assertEquals(10, Parallel.boundary(s, 10));
+        assertEquals(11 + Parallel.window, Parallel.boundary(s, 11));
+        assertEquals(11 + Parallel.window, Parallel.boundary(s, 40));
+        assertEquals(45, Parallel.boundary(s, 45));
+        assertEquals(6, Parallel.boundary("&&&&&&", 2));
+    }
+
+    public void testDecode() {
+        String escaped = Entities.encodeHtml(
+                "<html><body>\"äöüÄÖÜß\" & ''</body></html> ϑ € 😀")
+                + " &NotEqualTilde; &nGt; &Afr; &auml &auml= &#x1F600; &#0;"
+                + " &CounterClockwiseContourIntegral; &amp&lt; &#x &#12;";
+        for (Executor executor : executors()) {
+            String s = escaped;
+            for (int i = 0; i < 5; i++) {
+                assertEquals(Entities.decode(s),
+                        Entities.decodeParallel(s, executor));
+                assertEquals(Entities.decode(s), Entities.decodeParallel(
+                        new StringBuilder(s), executor));
+                s = s.substring(1) + s;
+            }
+            assertEquals("", Entities.decodeParallel("", executor));
+        }
+    }
+
+    public void testDecodeRandom() {
+        Random random = new Random(0xE4L);
+        String alphabet = "&;#x0a9AEFlumgtp ä";
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 300; n++) {
+            sb.setLength(0);
+            int len = random.nextInt(400);
+            for (int i = 0; i < len; i++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String s = sb.toString();
+            assertEquals(s, Entities.decode(s),
+                    Entities.decodeParallel(s, pool));
+        }
+    }
+
+    public void testEncode() {
+        String xhtml = "<html><body>\"äöüÄÖÜß­\" & ''</body></html>"
+                + " ϑ € 中文 😀😀😀😀😀😀😀😀 〈 \uDE00 \uD83D";
+        for (Executor executor : executors()) {
+            String s = xhtml;
+            for (int i = 0; i < 5; i++) {
+                assertEquals(Entities.encodeHtml(s),
+                        Entities.encodeHtmlParallel(s, executor));
+                assertEquals(Entities.encodeXml(s),
+                        Entities.encodeXmlParallel(s, executor));
+                assertEquals(Entities.encodeAsciiXml(s),
+                        Entities.encodeAsciiXmlParallel(
+                                new StringBuilder(s), executor));
+                s = s.substring(1) + s;
+            }
+            assertEquals("", Entities.encodeHtmlParallel(null, executor));
+        }
+
+        // short and nothing to encode, not copied
+        String plain = "nothing to encode";
+        assertSame(plain, Entities.encodeHtmlParallel(plain, pool));
+    }
+
+    public void testBatch() {
+        Random random = new Random(7);
+        String[] in = new String[200];
+        for (int i = 0; i < in.length; i++) {
+            int len = random.nextInt(3) == 0 ? 0 : random.nextInt(40);
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < len) {
+                sb.append("a<ä&".charAt(random.nextInt(4)));
+            }
+            in[i] = i == 3 ? null : sb.toString();
+        }
+        String[] encoded = new String[in.length];
+        Entities.encodeXml(in, encoded);
+        for (Executor executor : executors()) {
+            String[] out = new String[in.length];
+            Entities.encodeXmlParallel(in, out, executor);
+            assertEquals(Arrays.asList(encoded), Arrays.asList(out));
+            Entities.decodeParallel(encoded, out, executor);
+            in[3] = "";
+            assertEquals(Arrays.asList(in), Arrays.asList(out));
+            in[3] = null;
+        }
+
+        // a String is never split
+        assertEquals("[0, 1]", Arrays.toString(
+                Parallel.bounds(new String[] { "0123456789012345678901" })));
+        int[] bounds = Parallel.bounds(in);
+        assertEquals(0, bounds[0]);
+        assertEquals(in.length, bounds[bounds.length - 1]);
+        for (int k = 1; k < bounds.length; k++) {
+            assertTrue(bounds[k - 1] <= bounds[k]);
+        }
+    }
+
+    public void testException() {
+        CharSequence broken = new Broken(1000, 900);
+        try {
+            Entities.encodeXmlParallel(broken, pool);
+            fail();
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A pool, one which runs in the calling thread, one which never runs
+     * anything and one which rejects everything
+     */
+    List<Executor> executors() {
+        List<Executor> executors = new ArrayList<Executor>();
+        executors.add(pool);
+        executors.add(new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        executors.add(new Executor() {
+            public void execute(Runnable command) {
+                // never
+            }
+        });
+        executors.add(new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+
+        return executors;
+    }
+
+    /**
+     * Spaces with an exception at one index
+     */
+    static class Broken implements CharSequence {
+        final int length, broken;
+
+        Broken(int length, int broken) {
+            this.length = length;
+            this.broken = broken;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index == broken) {
+                throw new IllegalStateException();
+            }
+            return ' ';
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
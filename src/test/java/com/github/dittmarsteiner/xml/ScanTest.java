@@ -0,0 +1,115 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares {@link Scan} with a plain loop at every offset, so each character
+ * is once at every lane of a vector. With the <code>vector</code> profile
+ * this runs again against the multi-release JAR on Java 17 with the Vector
+ * API.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class ScanTest extends TestCase {
+
+    /**
+     * Markup, characters with and without an HTML entity, the soft hyphen,
+     * a surrogate pair and the highest character
+     */
+    static final String chars = "<>&\"'abc;# \u007F\u0080\u009F ¬"
+            + "­®äÿĀŒЖα–€"
+            + "♦中😀￿";
+
+    public void testVectorized() {
+        assertEquals(Boolean.getBoolean("vectors"), Scan.isVectorized());
+    }
+
+    public void testIndexOfEntity() {
+        Random random = new Random(42);
+        for (int n = 0; n < 100; n++) {
+            char[] buf = text(random, n, 0.01);
+            for (int i = 0; i <= n; i++) {
+                for (int mode = 0; mode < 3; mode++) {
+                    boolean xml = mode > 0, ascii = mode > 1;
+                    assertEquals(indexOfEntity(buf, i, n, xml, ascii),
+                            Scan.indexOfEntity(buf, i, n, xml, ascii));
+                }
+            }
+        }
+    }
+
+    public void testIndexOfEntityDense() {
+        Random random = new Random(42);
+        char[] buf = text(random, 1000, 0.5);
+        for (int mode = 0; mode < 3; mode++) {
+            boolean xml = mode > 0, ascii = mode > 1;
+            for (int i = 0; i < buf.length; i++) {
+                assertEquals(indexOfEntity(buf, i, buf.length, xml, ascii),
+                        Scan.indexOfEntity(buf, i, buf.length, xml, ascii));
+            }
+        }
+    }
+
+    public void testIndexOfAmp() {
+        Random random = new Random(42);
+        for (int n = 0; n < 100; n++) {
+            char[] buf = text(random, n, 0.02);
+            for (int i = 0; i <= n; i++) {
+                int expected = i;
+                while (expected < n && buf[expected] != '&') {
+                    expected++;
+                }
+                assertEquals(expected, Scan.indexOfAmp(buf, i, n));
+            }
+        }
+    }
+
+    /**
+     * @return letters with a share of {@link #chars}
+     */
+    static char[] text(Random random, int length, double share) {
+        char[] buf = new char[length];
+        for (int i = 0; i < length; i++) {
+            buf[i] = random.nextDouble() < share
+                    ? chars.charAt(random.nextInt(chars.length()))
+                    : (char) ('a' + random.nextInt(26));
+        }
+
+        return buf;
+    }
+
+    static int indexOfEntity(char[] buf, int i, int end, boolean xml,
+            boolean ascii) {
+        for (; i < end; i++) {
+            char c = buf[i];
+            String s = String.valueOf(c);
+            if (!(xml ? ascii ? Entities.encodeAsciiXml(s)
+                    : Entities.encodeXml(s)
+                    : Entities.encodeHtml(s)).equals(s)) {
+                return i;
+            }
+        }
+
+        return end;
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * ------------------------------------------------------------------------------
+ * ISC License http://opensource.org/licenses/isc-license.txt
+ * ------------------------------------------------------------------------------
+ * Copyright (c) 2015, Dittmar Steiner <dittmar.steiner@gmail.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.github.dittmarsteiner.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the UTF-8 versions with the {@link String} versions of
+ * {@link Entities}.
+ * 
+ * @author <a href="mailto:dittmar.steiner@gmail.com">Dittmar Steiner</a>
+ */
+public class Utf8Test extends TestCase {
+
+    String xhtml = "<html><body>\"äöüÄÖÜß\u00AD\" & ''</body></html>"
+            + " \u03D1 € \u4E2D\u6587 \uD83D\uDE00 \u2329";
+    String escaped = Entities.encodeHtml(xhtml)
+            + " &NotEqualTilde; &nGt; &Afr; &auml &auml= &#x1F600; &#0;";
+
+    public void testEncode() throws IOException {
+        assertEncoded(xhtml);
+        assertEncoded("");
+        assertEncoded("abc");
+    }
+
+    public void testEncodeMalformed() throws IOException {
+        byte[] bytes = { 'a', (byte) 0xFF, (byte) 0xC3, 'b', (byte) 0xE0,
+                (byte) 0xA0, '<', (byte) 0xED, (byte) 0xA0, (byte) 0x80,
+                (byte) 0xF4, (byte) 0x90, (byte) 0xC3 };
+        assertEncoded(bytes);
+        assertEquals("a&#65533;&#65533;b&#65533;&lt;&#65533;"
+                + "&#65533;&#65533;&#65533;",
+                new String(transcode(new Utf8(true, true), bytes, 64),
+                        "UTF-8"));
+    }
+
+    public void testEncodeRandom() throws IOException {
+        Random random = new Random(0xE4L);
+        for (int n = 0; n < 1000; n++) {
+            byte[] bytes = new byte[random.nextInt(40)];
+            for (int i = 0; i < bytes.length; i++) {
+                // mostly markup and the bytes of sequences
+                bytes[i] = (byte) (random.nextBoolean()
+                        ? "<>&\"'a\u00C3\u00A4\u00E2\u0082\u00AC\u00F0\u009F\u00AD\u00C2\u00ED\u00A0"
+                                .charAt(random.nextInt(17))
+                        : random.nextInt(256));
+            }
+            assertEncoded(bytes);
+        }
+    }
+
+    public void testDecode() throws IOException {
+        assertDecoded(escaped);
+        assertDecoded(escaped + "&auml");
+        assertDecoded(escaped + "&#x");
+        assertDecoded("&auml€ &ltä &xä &#1ä &amp&lt;");
+        assertDecoded("");
+    }
+
+    public void testDecodeGrowing() throws IOException {
+        // 5 bytes to 6
+        byte[] expected = "\u226B\u20D2".getBytes("UTF-8");
+        assertEquals(6, expected.length);
+        byte[] decoded = transcode(new Utf8(), "&nGt;".getBytes("UTF-8"), 6);
+        assertTrue(Arrays.equals(expected, decoded));
+        // no room, nothing consumed
+        ByteBuffer src = ByteBuffer.wrap("&nGt;".getBytes("UTF-8"));
+        Entities.decode(src, ByteBuffer.allocate(5));
+        assertEquals(0, src.position());
+    }
+
+    public void testStream() throws IOException {
+        // larger than Entities.bufferSize to split sequences and references
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= 3 * Entities.bufferSize) {
+            sb.append(xhtml).append(escaped);
+        }
+        String str = sb.toString();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Entities.encodeHtml(new ByteArrayInputStream(str.getBytes("UTF-8")),
+                out);
+        assertEquals(Entities.encodeHtml(str), out.toString("UTF-8"));
+
+        out = new ByteArrayOutputStream();
+        Entities.decode(new ByteArrayInputStream(str.getBytes("UTF-8")), out);
+        assertEquals(Entities.decode(str), out.toString("UTF-8"));
+    }
+
+    public void testDirect() throws IOException {
+        byte[] bytes = escaped.getBytes("UTF-8");
+        ByteBuffer src = ByteBuffer.allocateDirect(bytes.length);
+        src.put(bytes).flip();
+        ByteBuffer dst = ByteBuffer.allocateDirect(bytes.length);
+        Entities.decode(src, dst);
+        assertFalse(src.hasRemaining());
+        dst.flip();
+        byte[] decoded = new byte[dst.remaining()];
+        dst.get(decoded);
+        assertEquals(Entities.decode(escaped), new String(decoded, "UTF-8"));
+
+        // read-only, not at 0
+        src = ByteBuffer.wrap(("x" + xhtml).getBytes("UTF-8"));
+        src.position(1);
+        dst = ByteBuffer.allocate(1024);
+        Entities.encodeXml(src.asReadOnlyBuffer(), dst);
+        assertEquals(Entities.encodeXml(xhtml),
+                new String(dst.array(), 0, dst.position(), "UTF-8"));
+    }
+
+    public void testFile() throws IOException {
+        // sparse and dense parts, longer than Utf8.minTransferLength
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(0xE4L);
+        while (sb.length() <= 4 * Utf8.minTransferLength) {
+            for (int i = random.nextInt(2 * Utf8.minTransferLength); i > 0; i--) {
+                sb.append((char) ('a' + i % 26));
+            }
+            for (int i = random.nextInt(100); i > 0; i--) {
+                sb.append(xhtml).append(escaped);
+            }
+        }
+        String str = sb.toString();
+
+        File in = File.createTempFile("entities", ".txt");
+        File out = File.createTempFile("entities", ".txt");
+        try {
+            write(in, str);
+            Entities.encodeHtml(in, out);
+            assertEquals(Entities.encodeHtml(str), read(out));
+            Entities.encodeXml(in, out);
+            assertEquals(Entities.encodeXml(str), read(out));
+            Entities.encodeAsciiXml(in, out);
+            assertEquals(Entities.encodeAsciiXml(str), read(out));
+            Entities.decode(in, out);
+            assertEquals(Entities.decode(str), read(out));
+
+            // many small windows, which split sequences and references
+            for (int size = 300; size < 340; size += 13) {
+                Utf8 utf8 = new Utf8();
+                utf8.mapSize = size;
+                utf8.transcode(in, out);
+                assertEquals(Entities.decode(str), read(out));
+
+                utf8 = new Utf8(false, false);
+                utf8.mapSize = size;
+                utf8.transcode(in, out);
+                assertEquals(Entities.encodeHtml(str), read(out));
+            }
+
+            write(in, "");
+            Entities.decode(in, out);
+            assertEquals("", read(out));
+        }
+        finally {
+            in.delete();
+            out.delete();
+        }
+    }
+
+    public void testTransferStalls() throws IOException {
+        StringBuilder sb = new StringBuilder(xhtml);
+        while (sb.length() <= 3 * Utf8.minTransferLength) {
+            sb.append((char) ('a' + sb.length() % 26));
+        }
+        String str = sb.append(xhtml).toString();
+
+        File in = File.createTempFile("entities", ".txt");
+        File out = File.createTempFile("entities", ".txt");
+        try {
+            write(in, str);
+            FileInputStream input = new FileInputStream(in);
+            FileOutputStream output = new FileOutputStream(out);
+            StallingChannel stalling = new StallingChannel(input.getChannel());
+            try {
+                new Utf8(false, false).transcode(stalling,
+                        output.getChannel());
+            }
+            finally {
+                input.close();
+                output.close();
+            }
+            assertEquals(Entities.encodeHtml(str), read(out));
+            assertTrue(stalling.stalls > 0);
+        }
+        finally {
+            in.delete();
+            out.delete();
+        }
+    }
+
+    /**
+     * Transfers a little on the first call of
+     * {@link #transferTo(long, long, WritableByteChannel)} and nothing on
+     * the later ones, like into a full target
+     */
+    static class StallingChannel extends FileChannel {
+        final FileChannel channel;
+        boolean transferred;
+        long stalls;
+
+        StallingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long transferTo(long position, long count,
+                WritableByteChannel target) throws IOException {
+            if (transferred) {
+                stalls++;
+                return 0;
+            }
+
+            transferred = true;
+
+            return channel.transferTo(position, Math.min(count, 1000), target);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length)
+                throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length)
+                throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position,
+                long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size)
+                throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared)
+                throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared)
+                throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+
+    public void testIndexOfEntity() {
+        ByteBuffer buf = ByteBuffer.wrap("abcdefghijklmnop\"&".getBytes());
+        Utf8 utf8 = new Utf8();
+        assertEquals(17, utf8.indexOfEntity(buf, 0, 18));
+        assertEquals(16, new Utf8(true, false).indexOfEntity(buf, 0, 18));
+        assertEquals(16, new Utf8(true, false).indexOfEntity(buf, 3, 18));
+        assertEquals(16, utf8.indexOfEntity(buf, 16, 16));
+        for (byte b = -128; b < 127; b++) {
+            for (int i = 0; i < 9; i++) {
+                buf = ByteBuffer.allocate(9);
+                buf.put(i, b);
+                int expected = b < 0 || Entities.isMarkup((char) b) ? i : 9;
+                assertEquals(expected,
+                        new Utf8(true, false).indexOfEntity(buf, 0, 9));
+            }
+        }
+    }
+
+    static void write(File file, String str) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(str.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    static String read(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[Entities.bufferSize];
+            for (int n; (n = in.read(buf)) >= 0;) {
+                bytes.write(buf, 0, n);
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        return bytes.toString("UTF-8");
+    }
+
+    void assertEncoded(String str) throws IOException {
+        assertEncoded(str.getBytes("UTF-8"));
+    }
+
+    void assertEncoded(byte[] bytes) throws IOException {
+        String str = new String(bytes, "UTF-8");
+        assertTranscoded(Entities.encodeHtml(str), new Utf8(false, false),
+                bytes);
+        assertTranscoded(Entities.encodeXml(str), new Utf8(true, false),
+                bytes);
+        assertTranscoded(Entities.encodeAsciiXml(str), new Utf8(true, true),
+                bytes);
+    }
+
+    void assertDecoded(String str) throws IOException {
+        assertTranscoded(Entities.decode(str), new Utf8(),
+                str.getBytes("UTF-8"));
+    }
+
+    /**
+     * With all sizes of <code>dst</code> from tiny to large enough.
+     */
+    void assertTranscoded(String expected, Utf8 utf8, byte[] bytes)
+            throws IOException {
+        for (int size = 10; size < 64; size += 7) {
+            byte[] result = transcode(utf8, bytes, size);
+            assertEquals(expected, new String(result, "UTF-8"));
+        }
+    }
+
+    /**
+     * Drains <code>dst</code> of <code>size</code> bytes until
+     * <code>src</code> is empty.
+     */
+    static byte[] transcode(Utf8 utf8, byte[] bytes, int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer src = ByteBuffer.wrap(bytes);
+        ByteBuffer dst = ByteBuffer.allocate(size);
+        do {
+            dst.clear();
+            utf8.transcode(src, dst);
+            out.write(dst.array(), 0, dst.position());
+            assertTrue("no progress", dst.position() > 0 || !src.hasRemaining());
+        }
+        while (src.hasRemaining());
+
+        return out.toByteArray();
+    }
+}